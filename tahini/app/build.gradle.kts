@@ -37,6 +37,28 @@ application {
     mainClass = "com.tahini.lang.Tahini"
 }
 
+// Parse the larder into .tahc files at build time, so the runtime loads its syntax trees
+// instead of parsing it. They are packaged as resources next to the larder sources.
+val precompileLarder by tasks.registering(JavaExec::class) {
+    description = "Precompiles the larder modules into .tahc files."
+    val larder = layout.projectDirectory.dir("src/main/resources/stdlib")
+    val output = layout.buildDirectory.dir("generated/larder")
+    inputs.dir(larder)
+    outputs.dir(output)
+    classpath = sourceSets.main.get().output.classesDirs
+    mainClass = "com.tahini.lang.PrecompileLarder"
+    argumentProviders.add(CommandLineArgumentProvider {
+        listOf(larder.asFile.path, output.get().dir("stdlib").asFile.path)
+    })
+    doFirst {
+        delete(output)
+    }
+}
+
+sourceSets.main {
+    resources.srcDir(precompileLarder)
+}
+
 tasks.jar {
     manifest {
         attributes(
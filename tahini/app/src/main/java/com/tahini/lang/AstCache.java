@@ -0,0 +1,153 @@
+package com.tahini.lang;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Parsed scripts and modules saved as .tahc files between runs, so a file
+ * that has not changed since it was last run is not scanned and parsed
+ * again. The files live in $TAHINI_CACHE, or ~/.cache/tahini, one per
+ * source path. Each records the path, the length and FNV-1a hash of the
+ * source it was parsed from, whether it was parsed with --test or with its
+ * function bodies skipped, see LazyBody, and the shape of the AST classes
+ * and token types, and is only used while all of them still match. An
+ * edit that keeps both the length and the 64-bit hash would go unnoticed,
+ * which is as unlikely as it needs to be for a cache of files people edit
+ * by hand, and keeps the source out of the file: a copy of it made the
+ * .tahc files of the tests and the larder's in the jar about 40% larger.
+ *
+ * The larder is precompiled the same way when the jar is built, see
+ * PrecompileLarder, and its .tahc files are read from the jar next to the
+ * modules they were parsed from.
+ *
+ * The cache only ever saves time: a missing, stale or unreadable file is
+ * parsed from source, and a file that cannot be written is not cached.
+ * --no-cache turns it off, bundled larder files included.
+ */
+final class AstCache {
+
+    private static final int MAGIC = 0x54414843;
+    private static final int FORMAT = Objects.hash(2, Expr.SCHEMA, Stmt.SCHEMA, Arrays.toString(TokenType.values()));
+
+    static boolean enabled = true;
+
+    private AstCache() {
+    }
+
+    // The saved statements of this source, or null if there are none.
+    static List<Stmt> load(String path, String filename, String source, boolean testMode, boolean lazy) {
+        Path file = file(path);
+        if (file == null || !Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            return read(Files.readAllBytes(file), key(path), filename, source, testMode, lazy);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // The bundled statements of a larder module, e.g. /stdlib/math.tahc for /stdlib/math.tah.
+    static List<Stmt> loadLarder(String resource, String source) {
+        if (!enabled) {
+            return null;
+        }
+        try (InputStream stream = AstCache.class.getResourceAsStream(resource + "c")) {
+            return stream == null ? null : read(stream.readAllBytes(), resource, resource, source, false, false);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    static void save(String path, String filename, String source, boolean testMode, boolean lazy,
+            List<Stmt> statements) {
+        Path file = file(path);
+        if (file == null) {
+            return;
+        }
+        Path temporary = null;
+        try {
+            Files.createDirectories(file.getParent());
+            temporary = Files.createTempFile(file.getParent(), "tahc", null);
+            try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(temporary))) {
+                write(stream, key(path), filename, source, testMode, lazy, statements);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            if (temporary != null) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException ignored) {
+                    // nothing left to clean up
+                }
+            }
+        }
+    }
+
+    // Writes the statements parsed from a source along with what they were parsed from.
+    static void write(OutputStream stream, String key, String filename, String source, boolean testMode,
+            boolean lazy, List<Stmt> statements) throws IOException {
+        AstWriter out = new AstWriter(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+        out.writeInt(mode(testMode, lazy));
+        out.writeString(key);
+        out.writeString(filename);
+        out.writeInt(source.length());
+        out.writeLong(hash(source));
+        out.writeStmts(statements);
+        out.flush();
+    }
+
+    private static List<Stmt> read(byte[] bytes, String key, String filename, String source, boolean testMode,
+            boolean lazy) {
+        try {
+            AstReader in = new AstReader(bytes);
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT || in.readInt() != mode(testMode, lazy)
+                    || !Objects.equals(in.readString(), key)
+                    || !Objects.equals(in.readString(), filename)
+                    || in.readInt() != source.length() || in.readLong() != hash(source)) {
+                return null;
+            }
+            return in.readStmts();
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static int mode(boolean testMode, boolean lazy) {
+        return (testMode ? 1 : 0) | (lazy ? 2 : 0);
+    }
+
+    private static Path file(String path) {
+        if (!enabled) {
+            return null;
+        }
+        String directory = System.getenv("TAHINI_CACHE");
+        Path root = directory != null ? Paths.get(directory) : Paths.get(System.getProperty("user.home"), ".cache", "tahini");
+        // two paths sharing a name only evict each other, since each file records its path
+        return root.resolve(Long.toHexString(hash(key(path))) + ".tahc");
+    }
+
+    // FNV-1a, which needs no setup and reads the string once.
+    private static long hash(String string) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < string.length(); i++) {
+            hash = (hash ^ string.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static String key(String path) {
+        return Paths.get(path).toAbsolutePath().normalize().toString();
+    }
+}
@@ -0,0 +1,154 @@
+package com.tahini.lang;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads back a tree saved by AstWriter. A malformed or truncated input is
+ * an IOException, never a partial tree. Numbers are decoded by hand rather
+ * than through a DataInputStream, whose setup costs more on a cold JVM than
+ * reading a small script does.
+ */
+final class AstReader {
+
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    private final byte[] bytes;
+    private int at;
+    private final List<String> strings = new ArrayList<>();
+
+    AstReader(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    int readTag() throws IOException {
+        return readByte();
+    }
+
+    Expr readExpr() throws IOException {
+        int tag = readTag();
+        return tag < 0 ? null : Expr.read(this, tag);
+    }
+
+    Stmt readStmt() throws IOException {
+        int tag = readTag();
+        return tag < 0 ? null : Stmt.read(this, tag);
+    }
+
+    List<Expr> readExprs() throws IOException {
+        int size = readInt();
+        if (size < 0) {
+            return null;
+        }
+        List<Expr> exprs = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            exprs.add(readExpr());
+        }
+        return exprs;
+    }
+
+    List<Stmt> readStmts() throws IOException {
+        int size = readInt();
+        if (size < 0) {
+            return null;
+        }
+        List<Stmt> stmts = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            stmts.add(readStmt());
+        }
+        return stmts;
+    }
+
+    Token readToken() throws IOException {
+        int type = readShort();
+        if (type < 0) {
+            return null;
+        }
+        if (type >= TOKEN_TYPES.length) {
+            throw new IOException("Unknown token type " + type + ".");
+        }
+        String lexeme = readString();
+        Object literal = readObject();
+        int line = readInt();
+        return new Token(TOKEN_TYPES[type], lexeme, literal, line, readString());
+    }
+
+    List<Token> readTokens() throws IOException {
+        int size = readInt();
+        if (size < 0) {
+            return null;
+        }
+        List<Token> tokens = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            tokens.add(readToken());
+        }
+        return tokens;
+    }
+
+    Object readObject() throws IOException {
+        return switch (readByte()) {
+            case 0 ->
+                null;
+            case 1 ->
+                Double.longBitsToDouble(readLong());
+            case 2 ->
+                readString();
+            case 3 ->
+                true;
+            case 4 ->
+                false;
+            default ->
+                throw new IOException("Unknown literal.");
+        };
+    }
+
+    String readString() throws IOException {
+        int index = readInt();
+        if (index < 0) {
+            return null;
+        }
+        if (index < strings.size()) {
+            return strings.get(index);
+        }
+        if (index != strings.size()) {
+            throw new IOException("Unknown string " + index + ".");
+        }
+        int length = readInt();
+        if (length < 0) {
+            throw new IOException("Negative length.");
+        }
+        need(length);
+        String string = new String(bytes, at, length, StandardCharsets.UTF_8);
+        at += length;
+        strings.add(string);
+        return string;
+    }
+
+    int readInt() throws IOException {
+        return readShort() << 16 | readShort() & 0xffff;
+    }
+
+    private byte readByte() throws IOException {
+        need(1);
+        return bytes[at++];
+    }
+
+    private short readShort() throws IOException {
+        need(2);
+        at += 2;
+        return (short) (bytes[at - 2] << 8 | bytes[at - 1] & 0xff);
+    }
+
+    long readLong() throws IOException {
+        return (long) readInt() << 32 | readInt() & 0xffffffffL;
+    }
+
+    private void need(int count) throws EOFException {
+        if (bytes.length - at < count) {
+            throw new EOFException();
+        }
+    }
+}
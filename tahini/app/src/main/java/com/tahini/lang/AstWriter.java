@@ -0,0 +1,134 @@
+package com.tahini.lang;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a parsed tree in the binary form AstReader reads back. Each node
+ * writes a tag for its type and then its fields, see the write() methods
+ * GenerateAst puts in Expr and Stmt. Strings are written once and then
+ * referred to by number, so the file name every token carries costs a few
+ * bytes after its first occurrence.
+ */
+final class AstWriter {
+
+    private final DataOutputStream out;
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    AstWriter(OutputStream out) {
+        this.out = new DataOutputStream(out);
+    }
+
+    void writeTag(int tag) throws IOException {
+        out.writeByte(tag);
+    }
+
+    void writeExpr(Expr expr) throws IOException {
+        if (expr == null) {
+            writeTag(-1);
+        } else {
+            expr.write(this);
+        }
+    }
+
+    void writeStmt(Stmt stmt) throws IOException {
+        if (stmt == null) {
+            writeTag(-1);
+        } else {
+            stmt.write(this);
+        }
+    }
+
+    void writeExprs(List<Expr> exprs) throws IOException {
+        out.writeInt(exprs == null ? -1 : exprs.size());
+        if (exprs != null) {
+            for (Expr expr : exprs) {
+                writeExpr(expr);
+            }
+        }
+    }
+
+    void writeStmts(List<Stmt> stmts) throws IOException {
+        out.writeInt(stmts == null ? -1 : stmts.size());
+        if (stmts != null) {
+            for (Stmt stmt : stmts) {
+                writeStmt(stmt);
+            }
+        }
+    }
+
+    void writeToken(Token token) throws IOException {
+        if (token == null) {
+            out.writeShort(-1);
+            return;
+        }
+        out.writeShort(token.type.ordinal());
+        writeString(token.lexeme);
+        writeObject(token.literal);
+        out.writeInt(token.line);
+        writeString(token.filename);
+    }
+
+    void writeTokens(List<Token> tokens) throws IOException {
+        out.writeInt(tokens == null ? -1 : tokens.size());
+        if (tokens != null) {
+            for (Token token : tokens) {
+                writeToken(token);
+            }
+        }
+    }
+
+    // Literals: nil, numbers, strings and booleans.
+    void writeObject(Object value) throws IOException {
+        switch (value) {
+            case null ->
+                out.writeByte(0);
+            case Double number -> {
+                out.writeByte(1);
+                out.writeDouble(number);
+            }
+            case String string -> {
+                out.writeByte(2);
+                writeString(string);
+            }
+            case Boolean bool ->
+                out.writeByte(bool ? 3 : 4);
+            default ->
+                throw new IOException("Cannot save a literal " + value + ".");
+        }
+    }
+
+    void writeString(String string) throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+            return;
+        }
+        Integer known = strings.get(string);
+        if (known != null) {
+            out.writeInt(known);
+            return;
+        }
+        strings.put(string, strings.size());
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(strings.size() - 1);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    void writeInt(int value) throws IOException {
+        out.writeInt(value);
+    }
+
+    void writeLong(long value) throws IOException {
+        out.writeLong(value);
+    }
+
+    void flush() throws IOException {
+        out.flush();
+    }
+}
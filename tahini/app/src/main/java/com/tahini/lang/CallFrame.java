@@ -2,9 +2,10 @@ package com.tahini.lang;
 
 class CallFrame {
 
-    final TahiniCallable function;
-    final int returnToLine; // line number where the function was called
-    final String returnToFilename; // filename where the function was called
+    // Frames on a CallStack are reused, so these are overwritten on every push.
+    TahiniCallable function;
+    int returnToLine; // line number where the function was called
+    String returnToFilename; // filename where the function was called
 
     CallFrame(TahiniCallable function, int returnToLine, String returnToFilename) {
         this.function = function;
@@ -0,0 +1,72 @@
+package com.tahini.lang;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tahini-level call stack kept for error traces. Frames are allocated once
+ * and overwritten in place, so a call pushes and pops without allocating.
+ * RuntimeErrors get a copy of the live frames from snapshot().
+ */
+class CallStack {
+
+    private CallFrame[] frames = new CallFrame[64];
+    private int size = 0;
+
+    void push(TahiniCallable function, Token paren) {
+        if (size == frames.length) {
+            frames = Arrays.copyOf(frames, size * 2);
+        }
+        CallFrame frame = frames[size];
+        if (frame == null) {
+            frames[size] = new CallFrame(function, paren.line, paren.filename);
+        } else {
+            frame.function = function;
+            frame.returnToLine = paren.line;
+            frame.returnToFilename = paren.filename;
+        }
+        size++;
+    }
+
+    // A tail call runs its target in the frame of the function it replaces.
+    void replaceTop(TahiniCallable function) {
+        if (size > 0) {
+            frames[size - 1].function = function;
+        }
+    }
+
+    // Puts back the frame of a wrapper the Optimizer inlined, beneath the
+    // native it called, so a failing call is traced as if it had not been.
+    void restoreInlined(CallFrame wrapper) {
+        if (size == frames.length) {
+            frames = Arrays.copyOf(frames, size * 2);
+        }
+        frames[size] = frames[size - 1];
+        frames[size - 1] = new CallFrame(wrapper.function, wrapper.returnToLine, wrapper.returnToFilename);
+        size++;
+    }
+
+    void pop() {
+        frames[--size].function = null;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void truncate(int newSize) {
+        while (size > newSize) {
+            pop();
+        }
+    }
+
+    List<CallFrame> snapshot() {
+        List<CallFrame> copy = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            CallFrame frame = frames[i];
+            copy.add(new CallFrame(frame.function, frame.returnToLine, frame.returnToFilename));
+        }
+        return copy;
+    }
+}
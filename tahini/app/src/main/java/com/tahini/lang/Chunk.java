@@ -0,0 +1,49 @@
+package com.tahini.lang;
+
+import java.util.Arrays;
+
+/**
+ * A compiled sequence of VM instructions, together with its constant pool and
+ * a line table holding the source line of every byte.
+ */
+class Chunk {
+
+    final String filename;
+
+    byte[] code = new byte[64];
+    int[] lines = new int[64];
+    int count = 0;
+
+    Object[] constants = new Object[16];
+    int constantCount = 0;
+
+    Chunk(String filename) {
+        this.filename = filename;
+    }
+
+    void write(byte b, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = b;
+        lines[count] = line;
+        count++;
+    }
+
+    int addConstant(Object value) {
+        if (constantCount == constants.length) {
+            constants = Arrays.copyOf(constants, constantCount * 2);
+        }
+        constants[constantCount] = value;
+        return constantCount++;
+    }
+
+    int readShort(int offset) {
+        return ((code[offset] & 0xff) << 8) | (code[offset + 1] & 0xff);
+    }
+
+    Token tokenAt(int offset) {
+        return new Token(TokenType.EOF, "", null, lines[offset], filename);
+    }
+}
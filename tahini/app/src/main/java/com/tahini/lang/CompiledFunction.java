@@ -0,0 +1,17 @@
+package com.tahini.lang;
+
+/**
+ * The compiled form of a Stmt.Function: its body chunk and where the
+ * postcondition checks start in it (-1 when there are none). A body the
+ * Parser skipped is compiled on the first call, see LazyBody.
+ */
+class CompiledFunction {
+
+    final Stmt.Function declaration;
+    Chunk chunk;
+    int postconditionStart;
+
+    CompiledFunction(Stmt.Function declaration) {
+        this.declaration = declaration;
+    }
+}
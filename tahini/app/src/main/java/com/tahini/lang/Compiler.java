@@ -0,0 +1,518 @@
+package com.tahini.lang;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiles resolved Stmt/Expr trees into bytecode chunks for the VM. Every
+ * function declaration gets its own chunk, wrapped in a CompiledFunction.
+ */
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+    private static class Loop {
+
+        final int scopeDepth;
+        final int testDepth;
+        final List<Integer> breakJumps = new ArrayList<>();
+
+        Loop(int scopeDepth, int testDepth) {
+            this.scopeDepth = scopeDepth;
+            this.testDepth = testDepth;
+        }
+    }
+
+    private final Chunk chunk;
+    private int line = 0;
+    private int scopeDepth = 0;
+    private int testDepth = 0;
+    private final List<Loop> loops = new ArrayList<>();
+
+    private Compiler(String filename) {
+        this.chunk = new Chunk(filename);
+    }
+
+    static Chunk compileScript(List<Stmt> statements, String filename) {
+        Compiler compiler = new Compiler(filename);
+        compiler.compile(statements);
+        compiler.emit(OpCode.END);
+        return compiler.chunk;
+    }
+
+    static Chunk compileModule(List<Stmt> declarations, String filename) {
+        Compiler compiler = new Compiler(filename);
+        compiler.compile(declarations);
+        compiler.emit(OpCode.END_MODULE);
+        return compiler.chunk;
+    }
+
+    private static CompiledFunction compileFunction(Stmt.Function stmt) {
+        CompiledFunction function = new CompiledFunction(stmt);
+        if (stmt.pending == null) {
+            compileBody(function);
+        }
+        return function;
+    }
+
+    // Compiles the function, parsing its body first if the Parser skipped it.
+    static void compileBody(CompiledFunction function) {
+        Stmt.Function stmt = function.declaration;
+        LazyBody.parse(stmt);
+        Compiler compiler = new Compiler(stmt.name.filename);
+        compiler.line = stmt.name.line;
+        if (!stmt.preconditions.isEmpty() || !stmt.postconditions.isEmpty()) {
+            int skip = compiler.emitJump(OpCode.SAMPLE_CALL);
+            for (Expr condition : stmt.preconditions) {
+                compiler.compile(condition);
+                compiler.emit(OpCode.CHECK_PRECONDITION);
+            }
+            compiler.patchJump(skip);
+        }
+        compiler.compile(stmt.body);
+        compiler.emit(OpCode.NIL);
+        compiler.emit(OpCode.RETURN);
+
+        int postconditionStart = -1;
+        if (!stmt.postconditions.isEmpty()) {
+            postconditionStart = compiler.chunk.count;
+            for (Expr condition : stmt.postconditions) {
+                compiler.compile(condition);
+                compiler.emit(OpCode.CHECK_POSTCONDITION);
+            }
+            compiler.emit(OpCode.FINISH);
+        }
+        function.chunk = compiler.chunk;
+        function.postconditionStart = postconditionStart;
+    }
+
+    private void compile(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void emit(byte op) {
+        chunk.write(op, line);
+    }
+
+    private void emitShort(int value) {
+        if (value > 0xffff) {
+            throw new RuntimeError(chunk.tokenAt(chunk.count - 1), "Too much code or too many constants in one chunk.", new ArrayList<>());
+        }
+        chunk.write((byte) ((value >> 8) & 0xff), line);
+        chunk.write((byte) (value & 0xff), line);
+    }
+
+    private void emitWithConstant(byte op, Object value) {
+        emit(op);
+        emitShort(chunk.addConstant(value));
+    }
+
+    private void emitOperator(byte op, Token operator) {
+        line = operator.line;
+        emitWithConstant(op, operator);
+    }
+
+    private int emitJump(byte op) {
+        emit(op);
+        return emitJumpOffset();
+    }
+
+    private int emitJumpOffset() {
+        emit((byte) 0xff);
+        emit((byte) 0xff);
+        return chunk.count - 2;
+    }
+
+    private void patchJump(int offset) {
+        int jump = chunk.count - offset - 2;
+        if (jump > 0xffff) {
+            throw new RuntimeError(chunk.tokenAt(offset), "Too much code to jump over.", new ArrayList<>());
+        }
+        chunk.code[offset] = (byte) ((jump >> 8) & 0xff);
+        chunk.code[offset + 1] = (byte) (jump & 0xff);
+    }
+
+    private void emitLoop(int loopStart) {
+        emit(OpCode.LOOP);
+        emitShort(chunk.count - loopStart + 2);
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        // Assignment statements don't need the value left on the stack.
+        if (stmt.expression instanceof Expr.Assign assign) {
+            compile(assign.value);
+            line = assign.name.line;
+            if (assign.depth >= 0) {
+                emitLocal(OpCode.STORE_LOCAL, assign.depth, assign.slot, assign.name);
+            } else {
+                emitWithConstant(OpCode.STORE_NAME, assign.name);
+            }
+            return null;
+        }
+        compile(stmt.expression);
+        emit(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        line = stmt.name.line;
+        emitWithConstant(OpCode.FUNCTION, compileFunction(stmt));
+        if (stmt.slot >= 0) {
+            emit(OpCode.DEFINE_LOCAL);
+            emitShort(stmt.slot);
+        } else {
+            emitWithConstant(OpCode.DEFINE_NAME, stmt.name);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitTestStmt(Stmt.Test stmt) {
+        line = stmt.name.line;
+        emitWithConstant(OpCode.TEST_BEGIN, stmt);
+        int handler = emitJumpOffset();
+        testDepth++;
+        compile(stmt.body);
+        testDepth--;
+        emit(OpCode.TEST_END);
+        patchJump(handler);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+        compile(stmt.thenBranch);
+        if (stmt.elseBranch != null) {
+            int endJump = emitJump(OpCode.JUMP);
+            patchJump(elseJump);
+            compile(stmt.elseBranch);
+            patchJump(endJump);
+        } else {
+            patchJump(elseJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(OpCode.NIL);
+        }
+        line = stmt.name.line;
+        if (stmt.slot >= 0) {
+            emit(OpCode.DEFINE_LOCAL);
+            emitShort(stmt.slot);
+        } else {
+            emitWithConstant(OpCode.DEFINE_NAME, stmt.name);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        emitWithConstant(OpCode.PUSH_SCOPE, stmt.locals);
+        scopeDepth++;
+        compile(stmt.statements);
+        scopeDepth--;
+        emit(OpCode.POP_SCOPE);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = chunk.count;
+        compile(stmt.condition);
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+
+        Loop loop = new Loop(scopeDepth, testDepth);
+        loops.add(loop);
+        compile(stmt.body);
+        loops.remove(loops.size() - 1);
+
+        emitLoop(loopStart);
+        patchJump(exitJump);
+        for (int breakJump : loop.breakJumps) {
+            patchJump(breakJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        if (loops.isEmpty()) {
+            // The parser only allows break inside loops.
+            return null;
+        }
+        Loop loop = loops.get(loops.size() - 1);
+        for (int i = loop.testDepth; i < testDepth; i++) {
+            emit(OpCode.POP_HANDLER);
+        }
+        for (int i = loop.scopeDepth; i < scopeDepth; i++) {
+            emit(OpCode.POP_SCOPE);
+        }
+        loop.breakJumps.add(emitJump(OpCode.JUMP));
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.tailCall) {
+            emitCall((Expr.Call) stmt.value, OpCode.TAIL_CALL);
+        } else if (stmt.value != null) {
+            compile(stmt.value);
+        } else {
+            emit(OpCode.NIL);
+        }
+        line = stmt.keyword.line;
+        emit(OpCode.RETURN);
+        return null;
+    }
+
+    @Override
+    public Void visitContractStmt(Stmt.Contract stmt) {
+        if (stmt.discharged) {
+            return null;
+        }
+        line = stmt.type.line;
+        emit(OpCode.SAMPLE_CONTRACT);
+        emitShort(chunk.addConstant(stmt));
+        int skip = emitJumpOffset();
+        List<Integer> failJumps = new ArrayList<>();
+        for (Expr condition : stmt.conditions) {
+            compile(condition);
+            failJumps.add(emitJump(OpCode.JUMP_IF_FALSE));
+        }
+        int endJump = emitJump(OpCode.JUMP);
+        for (int failJump : failJumps) {
+            patchJump(failJump);
+        }
+        line = stmt.type.line;
+        emitWithConstant(OpCode.CONTRACT_FAILED, stmt);
+        patchJump(endJump);
+        patchJump(skip);
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        line = stmt.path.line;
+        emitWithConstant(OpCode.IMPORT, stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        line = expr.name.line;
+        if (expr.depth >= 0) {
+            emitLocal(OpCode.SET_LOCAL, expr.depth, expr.slot, expr.name);
+        } else {
+            emitWithConstant(OpCode.SET_NAME, expr.name);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        line = expr.name.line;
+        if (expr.depth >= 0) {
+            emitLocal(OpCode.GET_LOCAL, expr.depth, expr.slot, expr.name);
+        } else {
+            emitWithConstant(OpCode.GET_NAME, expr.name);
+        }
+        return null;
+    }
+
+    private void emitLocal(byte op, int depth, int slot, Token name) {
+        if (depth > 0xff) {
+            throw new RuntimeError(name, "Too many nested scopes.", new ArrayList<>());
+        }
+        emit(op);
+        emit((byte) depth);
+        emitShort(slot);
+        emitShort(chunk.addConstant(name));
+    }
+
+    @Override
+    public Void visitNamespacedVariableExpr(Expr.NamespacedVariable expr) {
+        line = expr.nameParts.get(0).line;
+        emitWithConstant(OpCode.GET_NAMESPACED, expr.nameParts);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        switch (expr.operator.type) {
+            case PLUS ->
+                emitOperator(OpCode.ADD, expr.operator);
+            case MINUS ->
+                emitOperator(OpCode.SUBTRACT, expr.operator);
+            case STAR ->
+                emitOperator(OpCode.MULTIPLY, expr.operator);
+            case SLASH ->
+                emitOperator(OpCode.DIVIDE, expr.operator);
+            case MODULO ->
+                emitOperator(OpCode.MODULO, expr.operator);
+            case GREATER ->
+                emitOperator(OpCode.GREATER, expr.operator);
+            case GREATER_EQUAL ->
+                emitOperator(OpCode.GREATER_EQUAL, expr.operator);
+            case LESS ->
+                emitOperator(OpCode.LESS, expr.operator);
+            case LESS_EQUAL ->
+                emitOperator(OpCode.LESS_EQUAL, expr.operator);
+            case EQUAL_EQUAL ->
+                emit(OpCode.EQUAL);
+            case BANG_EQUAL ->
+                emit(OpCode.NOT_EQUAL);
+            default -> {
+                emit(OpCode.POP);
+                emit(OpCode.POP);
+                emit(OpCode.NIL);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        switch (expr.operator.type) {
+            case MINUS ->
+                emitOperator(OpCode.NEGATE, expr.operator);
+            case BANG ->
+                emit(OpCode.NOT);
+            default -> {
+                emit(OpCode.POP);
+                emit(OpCode.NIL);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        emitCall(expr, OpCode.CALL);
+        return null;
+    }
+
+    private void emitCall(Expr.Call expr, byte op) {
+        if (expr.cacheable) {
+            line = expr.paren.line;
+            emit(OpCode.GET_CALLEE);
+            emitShort(chunk.addConstant(expr));
+        } else {
+            compile(expr.callee);
+        }
+        for (Expr argument : expr.arguments) {
+            compile(argument);
+        }
+        line = expr.paren.line;
+        emit(op);
+        emit((byte) expr.arguments.size());
+        emitShort(chunk.addConstant(expr));
+    }
+
+    @Override
+    public Void visitListAccessExpr(Expr.ListAccess expr) {
+        compile(expr.list);
+        compile(expr.index);
+        emitOperator(OpCode.INDEX, expr.paren);
+        return null;
+    }
+
+    @Override
+    public Void visitListSliceExpr(Expr.ListSlice expr) {
+        compile(expr.list);
+        compile(expr.start);
+        compile(expr.end);
+        emitOperator(OpCode.SLICE, expr.paren);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(OpCode.NIL);
+        } else if (expr.value.equals(true)) {
+            emit(OpCode.TRUE);
+        } else if (expr.value.equals(false)) {
+            emit(OpCode.FALSE);
+        } else {
+            emitWithConstant(OpCode.CONSTANT, expr.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        compile(expr.condition);
+        int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+        compile(expr.left);
+        int endJump = emitJump(OpCode.JUMP);
+        patchJump(elseJump);
+        compile(expr.right);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        int endJump = emitJump(expr.operator.type == TokenType.OR ? OpCode.JUMP_IF_TRUE_KEEP : OpCode.JUMP_IF_FALSE_KEEP);
+        emit(OpCode.POP);
+        compile(expr.right);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitTahiniListExpr(Expr.TahiniList expr) {
+        for (Expr element : expr.elements) {
+            compile(element);
+        }
+        emit(OpCode.LIST);
+        emitShort(expr.elements.size());
+        return null;
+    }
+
+    @Override
+    public Void visitTahiniMapExpr(Expr.TahiniMap expr) {
+        for (int i = 0; i < expr.keys.size(); i++) {
+            compile(expr.keys.get(i));
+            compile(expr.values.get(i));
+        }
+        emit(OpCode.MAP);
+        emitShort(expr.keys.size());
+        return null;
+    }
+}
@@ -0,0 +1,10 @@
+package com.tahini.lang;
+
+/**
+ * How a statement finished, returned by the Interpreter's statement visitors
+ * and by statement nodes. Normal completion is null. A RETURN leaves its
+ * value in Interpreter.returnValue, so completing never allocates.
+ */
+enum Completion {
+    BREAK, RETURN
+}
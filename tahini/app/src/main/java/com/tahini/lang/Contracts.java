@@ -0,0 +1,63 @@
+package com.tahini.lang;
+
+/**
+ * How contracts run, chosen with --contracts. `on` checks every contract,
+ * `off` has the Optimizer strip them from the AST so nothing is left to
+ * check, and `sample:N` checks the contracts of one in N invocations of each
+ * function, and one in N executions of each assertion: or check: statement,
+ * starting with the first.
+ */
+final class Contracts {
+
+    enum Mode {
+        OFF, SAMPLE, ON
+    }
+
+    static Mode mode = Mode.ON;
+    static int sampleRate = 1;
+
+    // invocations and statements whose contracts were checked or skipped
+    private static long checked = 0;
+    private static long skipped = 0;
+
+    private Contracts() {
+    }
+
+    // Whether to check the contracts of this invocation of a function.
+    static boolean check(Stmt.Function function) {
+        if (mode == Mode.ON) {
+            checked++;
+            return true;
+        }
+        int run = function.runs;
+        function.runs = run + 1 < sampleRate ? run + 1 : 0;
+        return count(mode == Mode.SAMPLE && run == 0);
+    }
+
+    static boolean check(Stmt.Contract contract) {
+        if (mode == Mode.ON) {
+            checked++;
+            return true;
+        }
+        int run = contract.runs;
+        contract.runs = run + 1 < sampleRate ? run + 1 : 0;
+        return count(mode == Mode.SAMPLE && run == 0);
+    }
+
+    private static boolean count(boolean check) {
+        if (check) {
+            checked++;
+        } else {
+            skipped++;
+        }
+        return check;
+    }
+
+    static String describe() {
+        return mode == Mode.SAMPLE ? "sample:" + sampleRate : mode.name().toLowerCase();
+    }
+
+    static String stats() {
+        return "[contracts " + describe() + "] " + checked + " checked, " + skipped + " skipped.";
+    }
+}
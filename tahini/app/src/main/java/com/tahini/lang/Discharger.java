@@ -0,0 +1,871 @@
+package com.tahini.lang;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Proves contracts before the program runs, by abstract interpretation of
+ * the optimized AST. Every expression evaluates to a Shape: the kinds of
+ * value it may have, such as nil or a string, and for numbers the range
+ * they lie in. Statements are walked in order, so a variable has the shape
+ * of what was last stored in it. Both branches of an if are joined, and a
+ * loop is walked until the shapes at its start stop changing.
+ *
+ * A call to a known function is marked discharged when its preconditions
+ * hold for the shapes of the arguments passed there, and the engines skip
+ * the preconditions of calls made from that site. Known functions are those
+ * declared once in the program and never assigned, and larder functions.
+ * An assertion: or check: whose conditions all hold is marked discharged
+ * and skipped. Postconditions are always left to the runtime.
+ *
+ * With --verbose every call of a function with preconditions and every
+ * contract statement is reported as discharged or kept for runtime.
+ */
+final class Discharger {
+
+    // kinds of value, the bits of Shape.kinds
+    private static final int NIL = 1;
+    private static final int TRUE = 2;
+    private static final int FALSE = 4;
+    // a number in [low, high], never NaN
+    private static final int NUMBER = 8;
+    private static final int NAN = 16;
+    private static final int STRING = 32;
+    private static final int LIST = 64;
+    private static final int MAP = 128;
+    private static final int CALLABLE = 256;
+    private static final int ALL = 511;
+
+    // walks of a loop before its variables are given up on
+    private static final int MAX_PASSES = 8;
+
+    private static final double MIN = Double.NEGATIVE_INFINITY;
+    private static final double MAX = Double.POSITIVE_INFINITY;
+
+    // What an expression may evaluate to. A shape holding a single function
+    // declaration is a value only that declaration can have created.
+    private static final class Shape {
+
+        static final Shape ANY = new Shape(ALL, MIN, MAX, null);
+        static final Shape NUMBERS = new Shape(NUMBER | NAN, MIN, MAX, null);
+
+        final int kinds;
+        final double low;
+        final double high;
+        final Stmt.Function function;
+
+        Shape(int kinds, double low, double high, Stmt.Function function) {
+            this.kinds = kinds;
+            this.low = low;
+            this.high = high;
+            this.function = function;
+        }
+
+        static Shape of(int kinds) {
+            return new Shape(kinds, MIN, MAX, null);
+        }
+
+        static Shape number(double low, double high) {
+            return new Shape(NUMBER, low, high, null);
+        }
+
+        static Shape bool(boolean canBeTrue, boolean canBeFalse) {
+            return of((canBeTrue ? TRUE : 0) | (canBeFalse ? FALSE : 0));
+        }
+
+        static Shape literal(Object value) {
+            return switch (value) {
+                case null ->
+                    of(NIL);
+                case Boolean b ->
+                    of(b ? TRUE : FALSE);
+                case Double d ->
+                    d.isNaN() ? of(NAN) : number(d, d);
+                case String s ->
+                    of(STRING);
+                case List<?> l ->
+                    of(LIST);
+                case Map<?, ?> m ->
+                    of(MAP);
+                case TahiniCallable c ->
+                    of(CALLABLE);
+                default ->
+                    ANY;
+            };
+        }
+
+        boolean has(int kind) {
+            return (kinds & kind) != 0;
+        }
+
+        boolean isNumeric() {
+            return kinds != 0 && (kinds & ~(NUMBER | NAN)) == 0;
+        }
+
+        boolean canBeFalsy() {
+            return has(NIL | FALSE) || has(NUMBER) && low <= 0 && high >= 0;
+        }
+
+        boolean canBeTruthy() {
+            return has(ALL & ~(NIL | FALSE | NUMBER)) || has(NUMBER) && (low != 0 || high != 0);
+        }
+
+        // the values of this shape that are truthy, give or take a zero
+        Shape truthy() {
+            int rest = kinds & ~(NIL | FALSE);
+            if (has(NUMBER) && low == 0 && high == 0) {
+                rest &= ~NUMBER;
+            }
+            return new Shape(rest, low, high, function);
+        }
+
+        Shape falsy() {
+            int rest = kinds & (NIL | FALSE);
+            if (has(NUMBER) && low <= 0 && high >= 0) {
+                return new Shape(rest | NUMBER, 0, 0, null);
+            }
+            return of(rest);
+        }
+
+        Shape join(Shape other) {
+            return merge(other, false);
+        }
+
+        // A join whose ranges jump to infinity on any side they grew on, so
+        // a loop's shapes stop changing after a few walks.
+        Shape widen(Shape other) {
+            return merge(other, true);
+        }
+
+        private Shape merge(Shape other, boolean widen) {
+            int union = kinds | other.kinds;
+            Stmt.Function same = function == other.function && union == CALLABLE ? function : null;
+            if (!has(NUMBER) || !other.has(NUMBER)) {
+                Shape numbers = has(NUMBER) ? this : other;
+                return new Shape(union, numbers.low, numbers.high, same);
+            }
+            double lower = other.low < low ? (widen ? MIN : other.low) : low;
+            double higher = other.high > high ? (widen ? MAX : other.high) : high;
+            return new Shape(union, lower, higher, same);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Shape other && kinds == other.kinds && function == other.function
+                    && Double.compare(low, other.low) == 0 && Double.compare(high, other.high) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return kinds;
+        }
+    }
+
+    // The shapes of the variables in scope at some point of the walk.
+    private static final class Scope {
+
+        final Scope enclosing;
+        final Map<String, Shape> names;
+
+        Scope(Scope enclosing) {
+            this(enclosing, new HashMap<>());
+        }
+
+        private Scope(Scope enclosing, Map<String, Shape> names) {
+            this.enclosing = enclosing;
+            this.names = names;
+        }
+
+        Scope copy() {
+            return new Scope(enclosing != null ? enclosing.copy() : null, new HashMap<>(names));
+        }
+
+        int depth() {
+            return enclosing != null ? enclosing.depth() + 1 : 0;
+        }
+
+        Scope at(int depth) {
+            Scope scope = this;
+            for (int i = depth(); i > depth; i--) {
+                scope = scope.enclosing;
+            }
+            return scope;
+        }
+
+        Scope find(String name) {
+            for (Scope scope = this; scope != null; scope = scope.enclosing) {
+                if (scope.names.containsKey(name)) {
+                    return scope;
+                }
+            }
+            return null;
+        }
+
+        // Joins, or widens, the other scope of the same depth into this one.
+        void join(Scope other, boolean widen) {
+            for (Map.Entry<String, Shape> entry : names.entrySet()) {
+                Shape theirs = other.names.get(entry.getKey());
+                Shape ours = entry.getValue();
+                entry.setValue(theirs == null ? Shape.ANY : widen ? ours.widen(theirs) : ours.join(theirs));
+            }
+            for (String name : other.names.keySet()) {
+                names.putIfAbsent(name, Shape.ANY);
+            }
+            if (enclosing != null) {
+                enclosing.join(other.enclosing, widen);
+            }
+        }
+
+        boolean sameAs(Scope other) {
+            return names.equals(other.names) && (enclosing == null || enclosing.sameAs(other.enclosing));
+        }
+
+        void forget(Set<String> forgotten) {
+            for (Scope scope = this; scope != null; scope = scope.enclosing) {
+                for (String name : forgotten) {
+                    scope.names.replace(name, Shape.ANY);
+                }
+            }
+        }
+
+        void forgetAll() {
+            for (Scope scope = this; scope != null; scope = scope.enclosing) {
+                scope.names.replaceAll((name, shape) -> Shape.ANY);
+            }
+        }
+    }
+
+    private final Optimizer optimizer;
+    private final Effects program;
+
+    // functions declared once and never assigned, whose name means them everywhere
+    private final Map<String, Shape> stable = new HashMap<>();
+    private Scope scope = new Scope(null);
+    // where the innermost loop being walked may be left by a break
+    private List<Scope> breaks;
+
+    // cleared while a loop is walked towards the shapes at its start
+    private boolean marking = true;
+    // set while preconditions are evaluated for a call site
+    private boolean proving = false;
+    // whether the expressions evaluated since last cleared may fail or
+    // call something, which a contract check may not leave out
+    private boolean mayFail = false;
+
+    Discharger(Optimizer optimizer, Effects program) {
+        this.optimizer = optimizer;
+        this.program = program;
+    }
+
+    void discharge(List<Stmt> statements) {
+        if (!program.opaqueImport) {
+            for (Stmt statement : statements) {
+                if (statement instanceof Stmt.Function function
+                        && program.declared.get(function.name.lexeme) == 1
+                        && !program.assigned.contains(function.name.lexeme)) {
+                    stable.put(function.name.lexeme, new Shape(CALLABLE, MIN, MAX, function));
+                }
+            }
+        }
+        execute(statements);
+    }
+
+    private void execute(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            execute(statement);
+        }
+    }
+
+    private void execute(Stmt stmt) {
+        switch (stmt) {
+            case Stmt.Expression s ->
+                evaluate(s.expression);
+            case Stmt.Print s ->
+                evaluate(s.expression);
+            case Stmt.Var s ->
+                scope.names.put(s.name.lexeme, s.initializer != null ? evaluate(s.initializer) : Shape.of(NIL));
+            case Stmt.Function s -> {
+                scope.names.put(s.name.lexeme, new Shape(CALLABLE, MIN, MAX, s));
+                function(s);
+            }
+            case Stmt.Block s -> {
+                scope = new Scope(scope);
+                execute(s.statements);
+                scope = scope.enclosing;
+            }
+            case Stmt.If s ->
+                branch(s);
+            case Stmt.While s ->
+                loop(s);
+            case Stmt.Break s -> {
+                if (breaks != null) {
+                    breaks.add(scope.copy());
+                }
+            }
+            case Stmt.Return s -> {
+                if (s.value != null) {
+                    evaluate(s.value);
+                }
+            }
+            case Stmt.Contract s ->
+                contract(s);
+            case Stmt.Test s -> {
+                // a failing test stops anywhere in its body
+                Scope outer = scope;
+                scope = outer.copy();
+                execute(s.body);
+                scope = outer;
+                Effects effects = new Effects();
+                effects.scan(s.body);
+                forget(effects);
+            }
+            case Stmt.Import s -> {
+                if (s.name == null) {
+                    scope.forgetAll();
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    // A body runs whenever the function is called, so it only knows its
+    // own locals and the stable functions. Also called for a body parsed
+    // after the rest of the program.
+    void function(Stmt.Function function) {
+        Scope outer = scope;
+        List<Scope> outerBreaks = breaks;
+        scope = new Scope(null);
+        breaks = null;
+        for (Token param : function.params) {
+            scope.names.put(param.lexeme, Shape.ANY);
+        }
+        execute(function.body);
+        scope = outer;
+        breaks = outerBreaks;
+    }
+
+    private void branch(Stmt.If stmt) {
+        Shape condition = evaluate(stmt.condition);
+        Scope otherwise = scope.copy();
+        if (!condition.canBeFalsy()) {
+            refine(stmt.condition, true);
+            execute(stmt.thenBranch);
+            return;
+        }
+        if (condition.canBeTruthy()) {
+            refine(stmt.condition, true);
+            execute(stmt.thenBranch);
+        }
+        Scope then = scope;
+        scope = otherwise;
+        refine(stmt.condition, false);
+        if (stmt.elseBranch != null) {
+            execute(stmt.elseBranch);
+        }
+        if (condition.canBeTruthy()) {
+            scope.join(then, false);
+        }
+    }
+
+    // Walks the loop from the join of the shapes it starts with and those
+    // it ends an iteration with, until they agree, then once more to mark.
+    private void loop(Stmt.While loop) {
+        boolean outerMarking = marking;
+        List<Scope> outerBreaks = breaks;
+        marking = false;
+        Scope head = scope.copy();
+        boolean settled = false;
+        for (int pass = 0; pass < MAX_PASSES && !settled; pass++) {
+            scope = head.copy();
+            iterate(loop);
+            Scope next = head.copy();
+            next.join(scope, true);
+            settled = next.sameAs(head);
+            head = next;
+        }
+        if (!settled) {
+            head.forgetAll();
+        }
+
+        marking = outerMarking;
+        scope = head.copy();
+        Scope exit = iterate(loop);
+        int depth = exit.depth();
+        for (Scope broken : breaks) {
+            exit.join(broken.at(depth), false);
+        }
+        scope = exit;
+        breaks = outerBreaks;
+    }
+
+    // One iteration, returning the shapes the loop is left with when its
+    // condition fails.
+    private Scope iterate(Stmt.While loop) {
+        breaks = new ArrayList<>();
+        Shape condition = evaluate(loop.condition);
+        Scope exit = scope.copy();
+        if (condition.canBeTruthy()) {
+            refine(loop.condition, true);
+            execute(loop.body);
+        }
+        return exit;
+    }
+
+    // Narrows the shapes of the variables a condition tests, on the branch
+    // where it came out as given.
+    private void refine(Expr condition, boolean outcome) {
+        switch (condition) {
+            case Expr.Variable e -> {
+                Scope found = scope.find(e.name.lexeme);
+                if (found != null && outcome) {
+                    found.names.put(e.name.lexeme, found.names.get(e.name.lexeme).truthy());
+                }
+            }
+            case Expr.Logical e -> {
+                if (e.operator.type == TokenType.AND == outcome) {
+                    refine(e.left, outcome);
+                    refine(e.right, outcome);
+                }
+            }
+            case Expr.Unary e when e.operator.type == TokenType.BANG ->
+                refine(e.right, !outcome);
+            case Expr.Binary e when e.left instanceof Expr.Variable variable && e.right instanceof Expr.Literal literal ->
+                refine(variable.name, e.operator.type, literal.value, outcome);
+            case Expr.Binary e when e.right instanceof Expr.Variable variable && e.left instanceof Expr.Literal literal ->
+                refine(variable.name, flip(e.operator.type), literal.value, outcome);
+            default -> {
+            }
+        }
+    }
+
+    private void refine(Token name, TokenType operator, Object value, boolean outcome) {
+        Scope found = scope.find(name.lexeme);
+        if (found == null) {
+            return;
+        }
+        Shape shape = found.names.get(name.lexeme);
+        Shape refined = switch (operator) {
+            case BANG_EQUAL, EQUAL_EQUAL -> {
+                if (value != null) {
+                    yield shape;
+                }
+                // only `x == nil` holding leaves x nil
+                boolean nil = operator == TokenType.EQUAL_EQUAL == outcome;
+                yield nil ? Shape.of(NIL) : new Shape(shape.kinds & ~NIL, shape.low, shape.high, shape.function);
+            }
+            case LESS, LESS_EQUAL, GREATER, GREATER_EQUAL -> {
+                // a comparison that came out false may have compared NaN
+                if (!outcome || !(value instanceof Double bound)) {
+                    yield shape;
+                }
+                double low = shape.has(NUMBER) ? shape.low : MIN;
+                double high = shape.has(NUMBER) ? shape.high : MAX;
+                if (operator == TokenType.LESS || operator == TokenType.LESS_EQUAL) {
+                    high = Math.min(high, bound);
+                } else {
+                    low = Math.max(low, bound);
+                }
+                yield Shape.number(low, high);
+            }
+            default ->
+                shape;
+        };
+        found.names.put(name.lexeme, refined);
+    }
+
+    private static TokenType flip(TokenType operator) {
+        return switch (operator) {
+            case LESS ->
+                TokenType.GREATER;
+            case LESS_EQUAL ->
+                TokenType.GREATER_EQUAL;
+            case GREATER ->
+                TokenType.LESS;
+            case GREATER_EQUAL ->
+                TokenType.LESS_EQUAL;
+            default ->
+                operator;
+        };
+    }
+
+    private void contract(Stmt.Contract stmt) {
+        boolean proven = true;
+        for (Expr condition : stmt.conditions) {
+            proven &= holds(condition);
+        }
+        if (marking) {
+            stmt.discharged = proven;
+            report(stmt.type, proven ? "Discharged the " + stmt.type.lexeme + " statically."
+                    : "Kept the " + stmt.type.lexeme + " for runtime.");
+        }
+        // execution only goes past a failed assertion in a test
+        if (stmt.type.type == TokenType.ASSERTION) {
+            for (Expr condition : stmt.conditions) {
+                refine(condition, true);
+            }
+        }
+    }
+
+    // Whether the condition is truthy whenever it is evaluated, without
+    // failing or calling anything.
+    private boolean holds(Expr condition) {
+        mayFail = false;
+        Shape shape = evaluate(condition);
+        return !mayFail && !shape.canBeFalsy();
+    }
+
+    private void discharge(Expr.Call call, Stmt.Function function, List<Shape> arguments) {
+        Scope outer = scope;
+        boolean outerFailed = mayFail;
+        scope = new Scope(null);
+        proving = true;
+        for (int i = 0; i < arguments.size(); i++) {
+            scope.names.put(function.params.get(i).lexeme, arguments.get(i));
+        }
+        boolean proven = true;
+        for (Expr condition : function.preconditions) {
+            proven &= holds(condition);
+        }
+        scope = outer;
+        mayFail = outerFailed;
+        proving = false;
+
+        if (marking) {
+            call.discharged = proven;
+            String name = call.callee instanceof Expr.NamespacedVariable callee
+                    ? callee.nameParts.get(0).lexeme + "::" + callee.nameParts.get(1).lexeme
+                    : function.name.lexeme;
+            report(call.paren, proven ? "Discharged the preconditions of " + name + " statically."
+                    : "Kept the preconditions of " + name + " for runtime.");
+        }
+    }
+
+    private void report(Token at, String text) {
+        if (Tahini.verbose) {
+            System.err.println("[file " + at.filename + "][line " + at.line + "] " + text);
+        }
+    }
+
+    // Anything a call makes may assign the variables assigned in functions.
+    private void forget(Effects effects) {
+        scope.forget(effects.assigned);
+        if (!effects.calls.stream().allMatch(this::isNativeCall)) {
+            forgetCalled();
+        }
+    }
+
+    // What a call of anything but a native may assign. The functions of a
+    // file scooped without a name were never scanned, so they may assign
+    // any variable.
+    private void forgetCalled() {
+        if (program.opaqueImport) {
+            scope.forgetAll();
+        } else {
+            scope.forget(program.assignedInFunctions);
+        }
+    }
+
+    private boolean isNativeCall(Expr.Call call) {
+        return call.callee instanceof Expr.Literal
+                || call.callee instanceof Expr.Variable callee && optimizer.isNative(callee.name);
+    }
+
+    private Shape evaluate(Expr expr) {
+        return switch (expr) {
+            case Expr.Literal e ->
+                Shape.literal(e.value);
+            case Expr.Grouping e ->
+                evaluate(e.expression);
+            case Expr.Variable e ->
+                lookup(e.name);
+            case Expr.Assign e -> {
+                Shape value = evaluate(e.value);
+                Scope found = scope.find(e.name.lexeme);
+                if (found != null) {
+                    found.names.put(e.name.lexeme, value);
+                }
+                yield value;
+            }
+            case Expr.Unary e -> {
+                Shape right = evaluate(e.right);
+                if (e.operator.type == TokenType.BANG) {
+                    yield Shape.bool(right.canBeFalsy(), right.canBeTruthy());
+                }
+                if (!right.isNumeric()) {
+                    mayFail = true;
+                    yield Shape.NUMBERS;
+                }
+                yield new Shape(right.kinds, -right.high, -right.low, null);
+            }
+            case Expr.Binary e -> {
+                Shape left = evaluate(e.left);
+                yield binary(e.operator.type, left, evaluate(e.right));
+            }
+            case Expr.Logical e ->
+                logical(e);
+            case Expr.Ternary e -> {
+                Shape condition = evaluate(e.condition);
+                if (!condition.canBeFalsy()) {
+                    yield evaluate(e.left);
+                }
+                if (!condition.canBeTruthy()) {
+                    yield evaluate(e.right);
+                }
+                Scope otherwise = scope.copy();
+                refine(e.condition, true);
+                Shape left = evaluate(e.left);
+                Scope then = scope;
+                scope = otherwise;
+                refine(e.condition, false);
+                Shape right = evaluate(e.right);
+                scope.join(then, false);
+                yield left.join(right);
+            }
+            case Expr.Call e ->
+                call(e);
+            case Expr.ListAccess e -> {
+                evaluate(e.list);
+                evaluate(e.index);
+                mayFail = true;
+                yield Shape.ANY;
+            }
+            case Expr.ListSlice e -> {
+                evaluate(e.list);
+                if (e.start != null) {
+                    evaluate(e.start);
+                }
+                if (e.end != null) {
+                    evaluate(e.end);
+                }
+                mayFail = true;
+                yield Shape.ANY;
+            }
+            case Expr.TahiniList e -> {
+                for (Expr element : e.elements) {
+                    evaluate(element);
+                }
+                yield Shape.of(LIST);
+            }
+            case Expr.TahiniMap e -> {
+                for (int i = 0; i < e.keys.size(); i++) {
+                    evaluate(e.keys.get(i));
+                    evaluate(e.values.get(i));
+                }
+                yield Shape.of(MAP);
+            }
+            case Expr.NamespacedVariable e -> {
+                mayFail = true;
+                yield Shape.ANY;
+            }
+            default -> {
+                mayFail = true;
+                yield Shape.ANY;
+            }
+        };
+    }
+
+    private Shape lookup(Token name) {
+        Scope found = scope.find(name.lexeme);
+        if (found != null) {
+            return found.names.get(name.lexeme);
+        }
+        // a precondition's other names belong to the function's module
+        mayFail = true;
+        Shape shape = proving ? null : stable.get(name.lexeme);
+        return shape != null ? shape : Shape.ANY;
+    }
+
+    private Shape logical(Expr.Logical expr) {
+        Shape left = evaluate(expr.left);
+        boolean or = expr.operator.type == TokenType.OR;
+        // the right operand runs when the left one does not decide
+        if (or ? !left.canBeFalsy() : !left.canBeTruthy()) {
+            return left;
+        }
+        if (or ? !left.canBeTruthy() : !left.canBeFalsy()) {
+            return evaluate(expr.right);
+        }
+        Scope skipped = scope.copy();
+        Shape right = evaluate(expr.right);
+        scope.join(skipped, false);
+        return (or ? left.truthy() : left.falsy()).join(right);
+    }
+
+    private Shape call(Expr.Call call) {
+        // natives are always there, a namespace may not be
+        Shape callee = call.callee instanceof Expr.NamespacedVariable || isNativeCall(call)
+                ? Shape.ANY : evaluate(call.callee);
+        List<Shape> arguments = new ArrayList<>(call.arguments.size());
+        for (Expr argument : call.arguments) {
+            arguments.add(evaluate(argument));
+        }
+
+        Stmt.Function function = callee.function != null ? callee.function : optimizer.larderFunction(call.callee);
+        if (function != null && !proving && !function.preconditions.isEmpty()
+                && function.params.size() == arguments.size()) {
+            discharge(call, function, arguments);
+        }
+
+        if (!isNativeCall(call)) {
+            forgetCalled();
+        }
+        // len of a list or string always gives a count
+        if (call.callee instanceof Expr.Variable variable && variable.name.lexeme.equals("len")
+                && optimizer.isNative(variable.name) && arguments.size() == 1
+                && arguments.get(0).kinds != 0 && (arguments.get(0).kinds & ~(STRING | LIST)) == 0) {
+            return Shape.number(0, MAX);
+        }
+        mayFail = true;
+        return Shape.ANY;
+    }
+
+    private Shape binary(TokenType operator, Shape left, Shape right) {
+        return switch (operator) {
+            case EQUAL_EQUAL ->
+                equal(left, right, true);
+            case BANG_EQUAL ->
+                equal(left, right, false);
+            case PLUS -> {
+                if (left.isNumeric() && right.isNumeric()) {
+                    yield arithmetic(operator, left, right);
+                }
+                if (left.kinds == STRING || right.kinds == STRING) {
+                    yield Shape.of(STRING);
+                }
+                if (left.kinds == LIST && right.kinds == LIST) {
+                    yield Shape.of(LIST);
+                }
+                mayFail = true;
+                yield Shape.of(NUMBER | NAN | STRING | LIST);
+            }
+            case MINUS, STAR, SLASH, MODULO -> {
+                if (!left.isNumeric() || !right.isNumeric()) {
+                    mayFail = true;
+                    yield Shape.NUMBERS;
+                }
+                yield arithmetic(operator, left, right);
+            }
+            case LESS, LESS_EQUAL, GREATER, GREATER_EQUAL -> {
+                if (!left.isNumeric() || !right.isNumeric()) {
+                    mayFail = true;
+                    yield Shape.bool(true, true);
+                }
+                yield compare(operator, left, right);
+            }
+            default -> {
+                mayFail = true;
+                yield Shape.ANY;
+            }
+        };
+    }
+
+    // Interpreter.isEqual: nil equals only nil, anything else by equals().
+    private static Shape equal(Shape left, Shape right, boolean equal) {
+        int common = left.kinds & right.kinds;
+        boolean canBeEqual = (common & ~NUMBER) != 0
+                || (common & NUMBER) != 0 && left.low <= right.high && right.low <= left.high;
+        boolean single = left.kinds == NIL || left.kinds == TRUE || left.kinds == FALSE;
+        boolean canDiffer = !(single && left.kinds == right.kinds);
+        return equal ? Shape.bool(canBeEqual, canDiffer) : Shape.bool(canDiffer, canBeEqual);
+    }
+
+    private static Shape compare(TokenType operator, Shape left, Shape right) {
+        // NaN compares false with everything
+        boolean numbers = left.has(NUMBER) && right.has(NUMBER);
+        boolean nan = left.has(NAN) || right.has(NAN);
+        boolean canBeTrue = numbers && switch (operator) {
+            case LESS ->
+                left.low < right.high;
+            case LESS_EQUAL ->
+                left.low <= right.high;
+            case GREATER ->
+                left.high > right.low;
+            default ->
+                left.high >= right.low;
+        };
+        boolean canBeFalse = nan || !numbers || switch (operator) {
+            case LESS ->
+                left.high >= right.low;
+            case LESS_EQUAL ->
+                left.high > right.low;
+            case GREATER ->
+                left.low <= right.high;
+            default ->
+                left.low < right.high;
+        };
+        return Shape.bool(canBeTrue, canBeFalse);
+    }
+
+    private Shape arithmetic(TokenType operator, Shape left, Shape right) {
+        if ((operator == TokenType.SLASH || operator == TokenType.MODULO)
+                && !(right.has(NUMBER) && (right.low > 0 || right.high < 0) && !right.has(NAN))) {
+            // a zero divisor is a RuntimeError
+            mayFail = true;
+        }
+        if (!left.has(NUMBER) || !right.has(NUMBER)) {
+            return Shape.of(NAN);
+        }
+        boolean nan = left.has(NAN) || right.has(NAN) || infinitiesMeet(operator, left, right);
+        double[] bounds = switch (operator) {
+            case PLUS ->
+                new double[]{left.low + right.low, left.high + right.high};
+            case MINUS ->
+                new double[]{left.low - right.high, left.high - right.low};
+            case STAR ->
+                new double[]{left.low * right.low, left.low * right.high, left.high * right.low, left.high * right.high};
+            case SLASH ->
+                right.low <= 0 && right.high >= 0 ? new double[]{Double.NaN}
+                : new double[]{left.low / right.low, left.low / right.high, left.high / right.low, left.high / right.high};
+            default ->
+                remainder(left, right);
+        };
+        double low = MAX;
+        double high = MIN;
+        for (double bound : bounds) {
+            if (Double.isNaN(bound)) {
+                return Shape.NUMBERS;
+            }
+            low = Math.min(low, bound);
+            high = Math.max(high, bound);
+        }
+        return new Shape(nan ? NUMBER | NAN : NUMBER, low, high, null);
+    }
+
+    // Whether inf - inf or 0 * inf can happen inside the bounds, where the
+    // corners the bounds are computed from do not show it.
+    private static boolean infinitiesMeet(TokenType operator, Shape left, Shape right) {
+        return switch (operator) {
+            case PLUS ->
+                left.high == MAX && right.low == MIN || left.low == MIN && right.high == MAX;
+            case MINUS ->
+                left.high == MAX && right.high == MAX || left.low == MIN && right.low == MIN;
+            case STAR ->
+                holdsZero(left) && isUnbounded(right) || holdsZero(right) && isUnbounded(left);
+            default ->
+                false;
+        };
+    }
+
+    private static boolean holdsZero(Shape shape) {
+        return shape.low <= 0 && shape.high >= 0;
+    }
+
+    private static boolean isUnbounded(Shape shape) {
+        return shape.low == MIN || shape.high == MAX;
+    }
+
+    // Java's %, whose result takes the dividend's sign and is smaller than the divisor.
+    private static double[] remainder(Shape left, Shape right) {
+        if (Double.isInfinite(left.low) || Double.isInfinite(left.high)) {
+            return new double[]{Double.NaN};
+        }
+        double limit = Math.max(Math.abs(right.low), Math.abs(right.high));
+        double low = left.low >= 0 ? 0 : Math.max(left.low, -limit);
+        double high = left.high <= 0 ? 0 : Math.min(left.high, limit);
+        return new double[]{low, high};
+    }
+}
@@ -0,0 +1,208 @@
+package com.tahini.lang;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What a piece of the AST may do to names: which it declares and assigns,
+ * which namespaces it imports, and the calls and namespaced lookups it
+ * makes itself, outside the bodies of functions it declares. The Optimizer
+ * scans a whole program once and each loop it hoists from.
+ */
+final class Effects {
+
+    final Map<String, Integer> imports = new HashMap<>();
+    // an import without a name, which may bind any name or namespace
+    boolean opaqueImport;
+    // how many declarations of each name, as functions, parameters or variables
+    final Map<String, Integer> declared = new HashMap<>();
+    final Set<String> assigned = new HashSet<>();
+    // assigned inside a function body, so possibly by any call
+    final Set<String> assignedInFunctions = new HashSet<>();
+    final List<Expr.Call> calls = new ArrayList<>();
+    final List<Expr.NamespacedVariable> lookups = new ArrayList<>();
+
+    private int functionDepth = 0;
+
+    void scan(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            scan(statement);
+        }
+    }
+
+    void scan(Stmt stmt) {
+        switch (stmt) {
+            case Stmt.Expression s ->
+                scan(s.expression);
+            case Stmt.Function s -> {
+                declare(s.name);
+                for (Token param : s.params) {
+                    declare(param);
+                }
+                functionDepth++;
+                scan(s.body);
+                if (s.unparsed != null) {
+                    scanTokens(s.unparsed);
+                }
+                scanAll(s.preconditions);
+                scanAll(s.postconditions);
+                functionDepth--;
+            }
+            case Stmt.Test s ->
+                scan(s.body);
+            case Stmt.Print s ->
+                scan(s.expression);
+            case Stmt.If s -> {
+                scan(s.condition);
+                scan(s.thenBranch);
+                if (s.elseBranch != null) {
+                    scan(s.elseBranch);
+                }
+            }
+            case Stmt.Var s -> {
+                declare(s.name);
+                if (s.initializer != null) {
+                    scan(s.initializer);
+                }
+            }
+            case Stmt.Block s ->
+                scan(s.statements);
+            case Stmt.While s -> {
+                scan(s.condition);
+                scan(s.body);
+            }
+            case Stmt.Return s -> {
+                if (s.value != null) {
+                    scan(s.value);
+                }
+            }
+            case Stmt.Contract s ->
+                scanAll(s.conditions);
+            case Stmt.Import s -> {
+                if (s.name == null) {
+                    opaqueImport = true;
+                } else {
+                    imports.merge(s.name.lexeme, 1, Integer::sum);
+                }
+            }
+            case null, default -> {
+            }
+        }
+    }
+
+    void scan(Expr expr) {
+        switch (expr) {
+            case Expr.Assign e -> {
+                assigned.add(e.name.lexeme);
+                if (functionDepth > 0) {
+                    assignedInFunctions.add(e.name.lexeme);
+                }
+                scan(e.value);
+            }
+            case Expr.Binary e -> {
+                scan(e.left);
+                scan(e.right);
+            }
+            case Expr.Call e -> {
+                if (functionDepth == 0) {
+                    calls.add(e);
+                }
+                if (!(e.callee instanceof Expr.NamespacedVariable)) {
+                    scan(e.callee);
+                }
+                scanAll(e.arguments);
+            }
+            case Expr.ListAccess e -> {
+                scan(e.list);
+                scan(e.index);
+            }
+            case Expr.ListSlice e -> {
+                scan(e.list);
+                scan(e.start);
+                scan(e.end);
+            }
+            case Expr.Grouping e ->
+                scan(e.expression);
+            case Expr.Unary e ->
+                scan(e.right);
+            case Expr.Ternary e -> {
+                scan(e.condition);
+                scan(e.left);
+                scan(e.right);
+            }
+            case Expr.NamespacedVariable e -> {
+                if (functionDepth == 0) {
+                    lookups.add(e);
+                }
+            }
+            case Expr.Logical e -> {
+                scan(e.left);
+                scan(e.right);
+            }
+            case Expr.TahiniList e ->
+                scanAll(e.elements);
+            case Expr.TahiniMap e -> {
+                scanAll(e.keys);
+                scanAll(e.values);
+            }
+            case null, default -> {
+            }
+        }
+    }
+
+    // A function body the Parser skipped, read off its tokens: each
+    // `name =` counts as an assignment, each name after `var` or `fun` and
+    // each parameter as a declaration, and each scoop as an import. It may
+    // find more than the parsed body would, never less.
+    private void scanTokens(List<Token> tokens) {
+        for (int i = 0; i < tokens.size() - 1; i++) {
+            Token next = tokens.get(i + 1);
+            switch (tokens.get(i).type) {
+                case IDENTIFIER -> {
+                    if (next.type == TokenType.EQUAL) {
+                        assigned.add(tokens.get(i).lexeme);
+                        assignedInFunctions.add(tokens.get(i).lexeme);
+                    }
+                }
+                case VAR -> {
+                    if (next.type == TokenType.IDENTIFIER) {
+                        declare(next);
+                    }
+                }
+                case FUN -> {
+                    for (int j = i + 1; j < tokens.size() && tokens.get(j).type != TokenType.RIGHT_PAREN
+                            && tokens.get(j).type != TokenType.LEFT_BRACE; j++) {
+                        if (tokens.get(j).type == TokenType.IDENTIFIER) {
+                            declare(tokens.get(j));
+                        }
+                    }
+                }
+                case SCOOP -> {
+                    if (i + 3 < tokens.size() && next.type == TokenType.STRING
+                            && tokens.get(i + 2).type == TokenType.INTO
+                            && tokens.get(i + 3).type == TokenType.IDENTIFIER) {
+                        imports.merge(tokens.get(i + 3).lexeme, 1, Integer::sum);
+                    } else {
+                        opaqueImport = true;
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+    }
+
+    private void declare(Token name) {
+        declared.merge(name.lexeme, 1, Integer::sum);
+    }
+
+    private void scanAll(List<Expr> exprs) {
+        for (Expr expr : exprs) {
+            scan(expr);
+        }
+    }
+}
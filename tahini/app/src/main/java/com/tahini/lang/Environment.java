@@ -1,38 +1,161 @@
 package com.tahini.lang;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 class Environment {
 
+    // marks a slot whose declaration has not been executed yet
+    private static final Object UNDEFINED = new Object();
+
     final Environment enclosing;
 
+    // slot-indexed locals laid out by the Resolver, null for name-based scopes
+    private final String[] slotNames;
+    private final Object[] slots;
+
     public Environment() {
-        this.enclosing = null;
+        this(null, null);
     }
 
     public Environment(Environment enclosing) {
+        this(enclosing, null);
+    }
+
+    public Environment(Environment enclosing, String[] slotNames) {
         this.enclosing = enclosing;
+        this.slotNames = slotNames;
+        if (slotNames != null) {
+            this.slots = new Object[slotNames.length];
+            Arrays.fill(this.slots, UNDEFINED);
+        } else {
+            this.slots = null;
+        }
+    }
+
+    // A slot holding a number unboxed, stored by the node engine's specialized
+    // nodes. Assigning another number updates the cell instead of boxing.
+    static final class NumberCell {
+
+        double value;
+
+        NumberCell(double value) {
+            this.value = value;
+        }
     }
 
-    private final Map<String, Object> values = new HashMap<>();
+    // A name-based binding. Inline caches keep hold of it, so they see
+    // redefinitions and assignments without looking the name up again.
+    static final class Binding {
 
-    final Map<String, Environment> namespaces = new HashMap<>();
+        Object value;
+
+        Binding(Object value) {
+            this.value = value;
+        }
+    }
+
+    // allocated on first use, slot frames usually never need them
+    private Map<String, Binding> values;
+
+    // Counts declarations and assignments that shadowed a native in a root
+    // environment. An inline cache linked to a native relinks once it changes.
+    static int shadowings = 0;
+
+    private Map<String, Binding> namespaces;
 
     public void define(String name, Object value) {
-        values.put(name, value);
+        if (values == null) {
+            values = new HashMap<>();
+        }
+        Binding binding = values.get(name);
+        if (binding != null) {
+            binding.value = value;
+        } else {
+            if (enclosing == StandardLibrary.BUILTINS && enclosing.values.containsKey(name)) {
+                shadowings++;
+            }
+            values.put(name, new Binding(value));
+        }
+    }
+
+    void defineAt(int slot, Object value) {
+        slots[slot] = value;
     }
 
     public void defineNamespace(String name, Environment namespace) {
-        namespaces.put(name, namespace);
+        if (namespaces == null) {
+            namespaces = new HashMap<>();
+        }
+        Binding binding = namespaces.get(name);
+        if (binding != null) {
+            binding.value = namespace;
+        } else {
+            namespaces.put(name, new Binding(namespace));
+        }
     }
 
     public Object getValue(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
+        Binding binding = values != null ? values.get(name.lexeme) : null;
+        if (binding != null) {
+            return binding.value;
+        }
+
+        int slot = slotOf(name.lexeme);
+        if (slot >= 0) {
+            return slotValue(slot);
+        }
+
+        if (enclosing != null) {
+            return enclosing.getValue(name);
+        }
+
+        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.", new ArrayList<>());
+    }
+
+    Object getAt(int depth, int slot, Token name) {
+        Environment env = ancestor(depth);
+        Object value = env.slots[slot];
+        if (value instanceof NumberCell cell) {
+            return cell.value;
+        }
+        return value != UNDEFINED ? value : env.getUndeclared(name);
+    }
+
+    private Object slotValue(int slot) {
+        return slots[slot] instanceof NumberCell cell ? (Object) cell.value : slots[slot];
+    }
+
+    // Unboxed access for the node engine's specialized nodes.
+    boolean isUnboxed(int slot) {
+        return slots[slot] instanceof NumberCell;
+    }
+
+    double getUnboxed(int slot) {
+        return ((NumberCell) slots[slot]).value;
+    }
+
+    void defineUnboxedAt(int slot, double value) {
+        slots[slot] = new NumberCell(value);
+    }
+
+    void assignUnboxedAt(int depth, int slot, Token name, double value) {
+        Environment env = ancestor(depth);
+        Object current = env.slots[slot];
+        if (current instanceof NumberCell cell) {
+            cell.value = value;
+        } else if (current != UNDEFINED) {
+            env.slots[slot] = new NumberCell(value);
+        } else {
+            env.assignUndeclared(name, value);
         }
+    }
 
+    // The slot is declared in this scope but its declaration has not run yet,
+    // so resolve the name the old way.
+    private Object getUndeclared(Token name) {
         if (enclosing != null) {
             return enclosing.getValue(name);
         }
@@ -41,8 +164,9 @@ class Environment {
     }
 
     public Environment getNamespace(Token name) {
-        if (namespaces.containsKey(name.lexeme)) {
-            return namespaces.get(name.lexeme);
+        Binding binding = namespaces != null ? namespaces.get(name.lexeme) : null;
+        if (binding != null) {
+            return (Environment) binding.value;
         }
 
         if (enclosing != null) {
@@ -53,11 +177,43 @@ class Environment {
     }
 
     void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
+        Binding binding = values != null ? values.get(name.lexeme) : null;
+        if (binding != null) {
+            binding.value = value;
+            return;
+        }
+
+        int slot = slotOf(name.lexeme);
+        if (slot >= 0) {
+            slots[slot] = value;
+            return;
+        }
+
+        // the natives are shared, so assigning one rebinds it in this root only
+        if (enclosing == StandardLibrary.BUILTINS && enclosing.values.containsKey(name.lexeme)) {
+            define(name.lexeme, value);
+            return;
+        }
+
+        if (enclosing != null) {
+            enclosing.assign(name, value);
             return;
         }
 
+        throw new RuntimeError(name,
+                "Undefined variable '" + name.lexeme + "'.", new ArrayList<>());
+    }
+
+    void assignAt(int depth, int slot, Token name, Object value) {
+        Environment env = ancestor(depth);
+        if (env.slots[slot] != UNDEFINED) {
+            env.slots[slot] = value;
+        } else {
+            env.assignUndeclared(name, value);
+        }
+    }
+
+    private void assignUndeclared(Token name, Object value) {
         if (enclosing != null) {
             enclosing.assign(name, value);
             return;
@@ -66,4 +222,63 @@ class Environment {
         throw new RuntimeError(name,
                 "Undefined variable '" + name.lexeme + "'.", new ArrayList<>());
     }
+
+    // Binding of a name in the root environment (the globals or a module's
+    // namespace), or of the native it falls back to, for an inline cache.
+    // Returns null when the name is missing there, or when a scope on the way
+    // is not a slot scope: only slot scopes are guaranteed never to gain a
+    // binding that would shadow the root one.
+    Binding rootBinding(Token name) {
+        Environment env = root(name);
+        if (env == null) {
+            return null;
+        }
+        Binding binding = env.values != null ? env.values.get(name.lexeme) : null;
+        if (binding == null && env.enclosing != null) {
+            binding = env.enclosing.values.get(name.lexeme);
+        }
+        return binding;
+    }
+
+    Binding rootNamespace(Token name) {
+        Environment env = root(name);
+        if (env == null || env.namespaces == null) {
+            return null;
+        }
+        return env.namespaces.get(name.lexeme);
+    }
+
+    private Environment root(Token name) {
+        Environment env = this;
+        while (env.enclosing != null && env.enclosing != StandardLibrary.BUILTINS) {
+            if (env.slotNames == null || env.values != null || env.namespaces != null
+                    || env.slotOf(name.lexeme) >= 0) {
+                return null;
+            }
+            env = env.enclosing;
+        }
+        return env;
+    }
+
+    Environment ancestor(int depth) {
+        Environment env = this;
+        while (depth-- > 0) {
+            env = env.enclosing;
+        }
+        return env;
+    }
+
+    // Name-based lookups still have to see slot locals, e.g. a callee reading
+    // a variable of its caller. Later slots shadow earlier ones with the same name.
+    private int slotOf(String name) {
+        if (slotNames == null) {
+            return -1;
+        }
+        for (int i = slotNames.length - 1; i >= 0; i--) {
+            if (slots[i] != UNDEFINED && slotNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
 }
@@ -1,8 +1,13 @@
 package com.tahini.lang;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 abstract class Expr {
+
+  static final int SCHEMA = -735751668;
+
   interface Visitor<R> {
     R visitAssignExpr(Assign expr);
     R visitBinaryExpr(Binary expr);
@@ -30,8 +35,22 @@ abstract class Expr {
       return visitor.visitAssignExpr(this);
     }
 
+    @Override
+    Assign copy() {
+      return new Assign(name, value == null ? null : value.copy());
+    }
+
+    @Override
+    void write(AstWriter out) throws IOException {
+      out.writeTag(0);
+      out.writeToken(name);
+      out.writeExpr(value);
+    }
+
     final Token name;
     final Expr value;
+    int depth = -1;
+    int slot = -1;
   }
   static class Binary extends Expr {
     Binary(Expr left, Token operator, Expr right) {
@@ -45,6 +64,19 @@ abstract class Expr {
       return visitor.visitBinaryExpr(this);
     }
 
+    @Override
+    Binary copy() {
+      return new Binary(left == null ? null : left.copy(), operator, right == null ? null : right.copy());
+    }
+
+    @Override
+    void write(AstWriter out) throws IOException {
+      out.writeTag(1);
+      out.writeExpr(left);
+      out.writeToken(operator);
+      out.writeExpr(right);
+    }
+
     final Expr left;
     final Token operator;
     final Expr right;
@@ -61,9 +93,26 @@ abstract class Expr {
       return visitor.visitCallExpr(this);
     }
 
+    @Override
+    Call copy() {
+      return new Call(callee == null ? null : callee.copy(), paren, Expr.copyAll(arguments));
+    }
+
+    @Override
+    void write(AstWriter out) throws IOException {
+      out.writeTag(2);
+      out.writeExpr(callee);
+      out.writeToken(paren);
+      out.writeExprs(arguments);
+    }
+
     final Expr callee;
     final Token paren;
     final List<Expr> arguments;
+    boolean cacheable = false;
+    InlineCache cache = null;
+    CallFrame inlined = null;
+    boolean discharged = false;
   }
   static class ListAccess extends Expr {
     ListAccess(Expr list, Token paren, Expr index) {
@@ -77,6 +126,19 @@ abstract class Expr {
       return visitor.visitListAccessExpr(this);
     }
 
+    @Override
+    ListAccess copy() {
+      return new ListAccess(list == null ? null : list.copy(), paren, index == null ? null : index.copy());
+    }
+
+    @Override
+    void write(AstWriter out) throws IOException {
+      out.writeTag(3);
+      out.writeExpr(list);
+      out.writeToken(paren);
+      out.writeExpr(index);
+    }
+
     final Expr list;
     final Token paren;
     final Expr index;
@@ -94,6 +156,20 @@ abstract class Expr {
       return visitor.visitListSliceExpr(this);
     }
 
+    @Override
+    ListSlice copy() {
+      return new ListSlice(list == null ? null : list.copy(), paren, start == null ? null : start.copy(), end == null ? null : end.copy());
+    }
+
+    @Override
+    void write(AstWriter out) throws IOException {
+      out.writeTag(4);
+      out.writeExpr(list);
+      out.writeToken(paren);
+      out.writeExpr(start);
+      out.writeExpr(end);
+    }
+
     final Expr list;
     final Token paren;
     final Expr start;
@@ -109,6 +185,17 @@ abstract class Expr {
       return visitor.visitGroupingExpr(this);
     }
 
+    @Override
+    Grouping copy() {
+      return new Grouping(expression == null ? null : expression.copy());
+    }
+
+    @Override
+    void write(AstWriter out) throws IOException {
+      out.writeTag(5);
+      out.writeExpr(expression);
+    }
+
     final Expr expression;
   }
   static class Literal extends Expr {
@@ -121,6 +208,17 @@ abstract class Expr {
       return visitor.visitLiteralExpr(this);
     }
 
+    @Override
+    Literal copy() {
+      return new Literal(value);
+    }
+
+    @Override
+    void write(AstWriter out) throws IOException {
+      out.writeTag(6);
+      out.writeObject(value);
+    }
+
     final Object value;
   }
   static class Unary extends Expr {
@@ -134,6 +232,18 @@ abstract class Expr {
       return visitor.visitUnaryExpr(this);
     }
 
+    @Override
+    Unary copy() {
+      return new Unary(operator, right == null ? null : right.copy());
+    }
+
+    @Override
+    void write(AstWriter out) throws IOException {
+      out.writeTag(7);
+      out.writeToken(operator);
+      out.writeExpr(right);
+    }
+
     final Token operator;
     final Expr right;
   }
@@ -149,6 +259,19 @@ abstract class Expr {
       return visitor.visitTernaryExpr(this);
     }
 
+    @Override
+    Ternary copy() {
+      return new Ternary(condition == null ? null : condition.copy(), left == null ? null : left.copy(), right == null ? null : right.copy());
+    }
+
+    @Override
+    void write(AstWriter out) throws IOException {
+      out.writeTag(8);
+      out.writeExpr(condition);
+      out.writeExpr(left);
+      out.writeExpr(right);
+    }
+
     final Expr condition;
     final Expr left;
     final Expr right;
@@ -163,7 +286,20 @@ abstract class Expr {
       return visitor.visitVariableExpr(this);
     }
 
+    @Override
+    Variable copy() {
+      return new Variable(name);
+    }
+
+    @Override
+    void write(AstWriter out) throws IOException {
+      out.writeTag(9);
+      out.writeToken(name);
+    }
+
     final Token name;
+    int depth = -1;
+    int slot = -1;
   }
   static class NamespacedVariable extends Expr {
     NamespacedVariable(List<Token> nameParts) {
@@ -175,6 +311,17 @@ abstract class Expr {
       return visitor.visitNamespacedVariableExpr(this);
     }
 
+    @Override
+    NamespacedVariable copy() {
+      return new NamespacedVariable(nameParts);
+    }
+
+    @Override
+    void write(AstWriter out) throws IOException {
+      out.writeTag(10);
+      out.writeTokens(nameParts);
+    }
+
     final List<Token> nameParts;
   }
   static class Logical extends Expr {
@@ -189,6 +336,19 @@ abstract class Expr {
       return visitor.visitLogicalExpr(this);
     }
 
+    @Override
+    Logical copy() {
+      return new Logical(left == null ? null : left.copy(), operator, right == null ? null : right.copy());
+    }
+
+    @Override
+    void write(AstWriter out) throws IOException {
+      out.writeTag(11);
+      out.writeExpr(left);
+      out.writeToken(operator);
+      out.writeExpr(right);
+    }
+
     final Expr left;
     final Token operator;
     final Expr right;
@@ -203,6 +363,17 @@ abstract class Expr {
       return visitor.visitTahiniListExpr(this);
     }
 
+    @Override
+    TahiniList copy() {
+      return new TahiniList(Expr.copyAll(elements));
+    }
+
+    @Override
+    void write(AstWriter out) throws IOException {
+      out.writeTag(12);
+      out.writeExprs(elements);
+    }
+
     final List<Expr> elements;
   }
   static class TahiniMap extends Expr {
@@ -216,9 +387,57 @@ abstract class Expr {
       return visitor.visitTahiniMapExpr(this);
     }
 
+    @Override
+    TahiniMap copy() {
+      return new TahiniMap(Expr.copyAll(keys), Expr.copyAll(values));
+    }
+
+    @Override
+    void write(AstWriter out) throws IOException {
+      out.writeTag(13);
+      out.writeExprs(keys);
+      out.writeExprs(values);
+    }
+
     final List<Expr> keys;
     final List<Expr> values;
   }
 
   abstract <R> R accept(Visitor<R> visitor);
+
+  // A fresh tree without the annotations of later passes.
+  abstract Expr copy();
+
+  static List<Expr> copyAll(List<Expr> nodes) {
+    if (nodes == null) {
+      return null;
+    }
+    List<Expr> copies = new ArrayList<>(nodes.size());
+    for (Expr node : nodes) {
+      copies.add(node.copy());
+    }
+    return copies;
+  }
+
+  abstract void write(AstWriter out) throws IOException;
+
+  static Expr read(AstReader in, int tag) throws IOException {
+    return switch (tag) {
+      case 0 -> new Assign(in.readToken(), in.readExpr());
+      case 1 -> new Binary(in.readExpr(), in.readToken(), in.readExpr());
+      case 2 -> new Call(in.readExpr(), in.readToken(), in.readExprs());
+      case 3 -> new ListAccess(in.readExpr(), in.readToken(), in.readExpr());
+      case 4 -> new ListSlice(in.readExpr(), in.readToken(), in.readExpr(), in.readExpr());
+      case 5 -> new Grouping(in.readExpr());
+      case 6 -> new Literal(in.readObject());
+      case 7 -> new Unary(in.readToken(), in.readExpr());
+      case 8 -> new Ternary(in.readExpr(), in.readExpr(), in.readExpr());
+      case 9 -> new Variable(in.readToken());
+      case 10 -> new NamespacedVariable(in.readTokens());
+      case 11 -> new Logical(in.readExpr(), in.readToken(), in.readExpr());
+      case 12 -> new TahiniList(in.readExprs());
+      case 13 -> new TahiniMap(in.readExprs(), in.readExprs());
+      default -> throw new IOException("Unknown Expr node " + tag + ".");
+    };
+  }
 }
@@ -0,0 +1,95 @@
+package com.tahini.lang;
+
+import java.util.List;
+
+/**
+ * Per call site cache of where a name-based callee lives, e.g. `len` or
+ * `math::floor`. The first call links the site to the callee's Binding, and
+ * later calls read the binding directly instead of walking environments and
+ * namespaces. Since the binding itself is cached, reassigning the callee is
+ * seen immediately. A namespaced site relinks once one of its namespaces is
+ * bound to another module, and a site linked to a native once a root
+ * environment declares a name of its own over a native.
+ *
+ * Only sites the Resolver marked cacheable use it. Those cannot be shadowed
+ * by a local declared later, and linking additionally refuses any callee
+ * that is not reached through slot scopes only, see Environment.rootBinding.
+ */
+final class InlineCache {
+
+    private static final Environment.Binding[] NO_NAMESPACES = new Environment.Binding[0];
+    private static final Environment[] NO_TARGETS = new Environment[0];
+
+    // the namespace bindings walked to reach the callee, and what each held
+    private final Environment.Binding[] namespaces;
+    private final Environment[] targets;
+    private final Environment.Binding callee;
+    private final int shadowings = Environment.shadowings;
+
+    private InlineCache(Environment.Binding[] namespaces, Environment[] targets, Environment.Binding callee) {
+        this.namespaces = namespaces;
+        this.targets = targets;
+        this.callee = callee;
+    }
+
+    private boolean isValid() {
+        if (shadowings != Environment.shadowings) {
+            return false;
+        }
+        for (int i = 0; i < namespaces.length; i++) {
+            if (namespaces[i].value != targets[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static Object callee(Expr.Call expr, Environment env) {
+        InlineCache cache = expr.cache;
+        if (cache == null || !cache.isValid()) {
+            cache = link(expr.callee, env);
+            expr.cache = cache;
+            if (cache == null) {
+                return lookup(expr.callee, env);
+            }
+        }
+        return cache.callee.value;
+    }
+
+    private static InlineCache link(Expr callee, Environment env) {
+        if (callee instanceof Expr.Variable variable) {
+            Environment.Binding binding = env.rootBinding(variable.name);
+            return binding != null ? new InlineCache(NO_NAMESPACES, NO_TARGETS, binding) : null;
+        }
+
+        List<Token> nameParts = ((Expr.NamespacedVariable) callee).nameParts;
+        int count = nameParts.size() - 1;
+        Environment.Binding[] namespaces = new Environment.Binding[count];
+        Environment[] targets = new Environment[count];
+        for (int i = 0; i < count; i++) {
+            Environment.Binding namespace = env.rootNamespace(nameParts.get(i));
+            if (namespace == null) {
+                return null;
+            }
+            namespaces[i] = namespace;
+            targets[i] = (Environment) namespace.value;
+            env = targets[i];
+        }
+
+        Environment.Binding binding = env.rootBinding(nameParts.get(count));
+        return binding != null ? new InlineCache(namespaces, targets, binding) : null;
+    }
+
+    // The uncached lookup, which also reports undefined names.
+    private static Object lookup(Expr callee, Environment env) {
+        if (callee instanceof Expr.Variable variable) {
+            return env.getValue(variable.name);
+        }
+
+        List<Token> nameParts = ((Expr.NamespacedVariable) callee).nameParts;
+        for (int i = 0; i < nameParts.size() - 1; i++) {
+            env = env.getNamespace(nameParts.get(i));
+        }
+        return env.getValue(nameParts.get(nameParts.size() - 1));
+    }
+}
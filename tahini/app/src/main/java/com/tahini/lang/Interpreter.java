@@ -15,31 +15,33 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Stack;
 import java.util.stream.Collectors;
 
-class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-
-    class BreakException extends RuntimeException {
-    }
+class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Completion> {
 
     final boolean repl;
+    // value of the RETURN completion being propagated, or a pending TailCall
+    Object returnValue;
+    // set for the TahiniFunction about to run from a call site the
+    // Discharger proved its preconditions at, and cleared as it starts
+    boolean discharged;
     private int functionDepth = 0;
 
     private final Set<Path> scoopedFiles = new HashSet<>();
+    // namespaces of the modules imported with `into`, by module, each
+    // initialized by its first import and shared by every later one
+    private final Map<String, Environment> modules = new HashMap<>();
 
-    final Environment globals = new Environment();
+    final Environment globals = new Environment(StandardLibrary.BUILTINS);
     public Environment environment = globals;
 
     public Interpreter(boolean repl) {
         this.repl = repl;
-        StandardLibrary.addStandardFunctions(environment);
-        StandardLibrary.addInternalFunctions(environment);
     }
 
-    private final Stack<CallFrame> callStack = new Stack<>();
+    final CallStack callStack = new CallStack();
 
-    private final List<String> testResults = new ArrayList<>();
+    final List<String> testResults = new ArrayList<>();
 
     void interpret(List<Stmt> statements) {
         try {
@@ -48,6 +50,22 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
         } catch (RuntimeError error) {
             Tahini.runtimeError(error);
+        } catch (StackOverflowError error) {
+            Tahini.runtimeError(stackOverflow(error));
+        }
+
+        if (!testResults.isEmpty()) {
+            printTestResults();
+        }
+    }
+
+    void interpret(Node program) {
+        try {
+            program.execute(this);
+        } catch (RuntimeError error) {
+            Tahini.runtimeError(error);
+        } catch (StackOverflowError error) {
+            Tahini.runtimeError(stackOverflow(error));
         }
 
         if (!testResults.isEmpty()) {
@@ -55,14 +73,27 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
     }
 
-    private void printTestResults() {
+    // The Java stack ran out, which is the stack budget on these engines,
+    // see Tahini.onStack. Traced from the innermost call, as on the VM.
+    private RuntimeError stackOverflow(StackOverflowError error) {
+        List<CallFrame> frames = callStack.snapshot();
+        if (frames.isEmpty()) {
+            throw error;
+        }
+        CallFrame innermost = frames.get(frames.size() - 1);
+        Token at = new Token(TokenType.IDENTIFIER, "", null, innermost.returnToLine, innermost.returnToFilename);
+        return new RuntimeError(at, "Stack overflow: " + frames.size()
+                + " nested calls exceed the stack budget.", frames);
+    }
+
+    void printTestResults() {
         System.out.println("Test Results:");
         for (String result : testResults) {
             System.out.println(result);
         }
     }
 
-    private String stringify(Object object) {
+    String stringify(Object object) {
         if (object == null) {
             return "nil";
         }
@@ -78,21 +109,26 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return object.toString();
     }
 
+    // A string operand of `+` as it is, anything else as it prints.
+    private CharSequence text(Object object) {
+        return object instanceof CharSequence text ? text : stringify(object);
+    }
+
     @Override
     public Object visitTahiniListExpr(Expr.TahiniList expr) {
-        List<Object> tahiniList = new ArrayList<>();
-        for (Expr element : expr.elements) {
-            tahiniList.add(evaluate(element));
+        Object[] items = new Object[expr.elements.size()];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = TahiniString.flatten(evaluate(expr.elements.get(i)));
         }
-        return tahiniList;
+        return TahiniVector.of(items);
     }
 
     @Override
     public Object visitTahiniMapExpr(Expr.TahiniMap expr) {
         Map<Object, Object> tahiniMap = new HashMap<>();
         for (int i = 0; i < expr.keys.size(); i++) {
-            Object key = evaluate(expr.keys.get(i));
-            Object value = evaluate(expr.values.get(i));
+            Object key = TahiniString.flatten(evaluate(expr.keys.get(i)));
+            Object value = TahiniString.flatten(evaluate(expr.values.get(i)));
             tahiniMap.put(key, value);
         }
         return tahiniMap;
@@ -108,57 +144,74 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return evaluate(expr.expression);
     }
 
-    private Object evaluate(Expr expr) {
+    Object evaluate(Expr expr) {
         return expr.accept(this);
     }
 
-    private void execute(Stmt stmt) {
-        stmt.accept(this);
+    Completion execute(Stmt stmt) {
+        return stmt.accept(this);
     }
 
     @Override
-    public Void visitBreakStmt(Stmt.Break stmt) {
-        throw new BreakException();
+    public Completion visitBreakStmt(Stmt.Break stmt) {
+        return Completion.BREAK;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
+    public Completion visitWhileStmt(Stmt.While stmt) {
         while (isTruthy(evaluate(stmt.condition))) {
-            try {
-                execute(stmt.body);
-            } catch (BreakException e) {
-                break;
+            Completion completion = execute(stmt.body);
+            if (completion != null) {
+                if (completion == Completion.BREAK) {
+                    break;
+                }
+                return completion;
             }
-
         }
         return null;
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Completion visitIfStmt(Stmt.If stmt) {
         Object condition = evaluate(stmt.condition);
         if (isTruthy(condition)) {
-            execute(stmt.thenBranch);
+            return execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null) {
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
         return null;
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        return executeBlock(stmt.statements, new Environment(environment, stmt.locals));
     }
 
-    public void executeBlock(List<Stmt> statements, Environment env) {
+    // Stops at the first statement that breaks or returns and hands its
+    // completion to the caller.
+    public Completion executeBlock(List<Stmt> statements, Environment env) {
         Environment previous = this.environment;
         try {
             this.environment = env;
 
-            for (Stmt statement : statements) {
-                execute(statement);
+            // indexed, so running a block does not allocate an iterator
+            for (int i = 0; i < statements.size(); i++) {
+                Completion completion = execute(statements.get(i));
+                if (completion != null) {
+                    return completion;
+                }
             }
+            return null;
+        } finally {
+            this.environment = previous;
+        }
+    }
+
+    Completion executeBlock(Node body, Environment env) {
+        Environment previous = this.environment;
+        try {
+            this.environment = env;
+            return (Completion) body.execute(this);
         } finally {
             this.environment = previous;
         }
@@ -169,7 +222,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         try {
             this.environment = env;
 
-            for (Expr condition : conditions) {
+            for (int i = 0; i < conditions.size(); i++) {
+                Expr condition = conditions.get(i);
                 Object value = evaluate(condition);
                 if (!isTruthy(value)) {
                     return condition;
@@ -182,7 +236,10 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     @Override
-    public Void visitContractStmt(Stmt.Contract stmt) {
+    public Completion visitContractStmt(Stmt.Contract stmt) {
+        if (stmt.discharged || !Contracts.check(stmt)) {
+            return null;
+        }
         Object condition = evaluateContractConditions(stmt.conditions, environment);
         if (condition != null && stmt.type.type == TokenType.ASSERTION) {
             throw new RuntimeError(stmt.type, stmt.type.lexeme + " contract failed (" + stmt.msg + ")", new ArrayList<>());
@@ -194,7 +251,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
         Object value = evaluate(stmt.expression);
         if (repl && functionDepth == 0) {
             System.err.println(stringify(value));
@@ -203,52 +260,79 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     @Override
-    public Void visitImportStmt(Stmt.Import stmt) {
-        List<Stmt> importedDeclarations;
-        try {
-            importedDeclarations = loadAndParseFile(stmt.path);
-        } catch (IOException e) {
-            throw new RuntimeError(stmt.path, "Error importing file " + stmt.path.lexeme + ".", new ArrayList<>());
-        }
-
+    public Completion visitImportStmt(Stmt.Import stmt) {
         if (stmt.name != null) {
-            Environment previous = this.environment;
-            Environment importedEnv = new Environment();
-
-            try {
-                this.environment = importedEnv;
-                StandardLibrary.addStandardFunctions(environment);
-                StandardLibrary.addInternalFunctions(environment);
-
-                for (Stmt statement : importedDeclarations) {
-                    if (statement instanceof Stmt.Function || statement instanceof Stmt.Var || statement instanceof Stmt.Import) {
-                        execute(statement);
+            Environment importedEnv = sharedModule(stmt);
+            if (importedEnv == null) {
+                List<Stmt> importedDeclarations = loadModule(stmt);
+                Environment previous = this.environment;
+                importedEnv = new Environment(StandardLibrary.BUILTINS);
+
+                try {
+                    this.environment = importedEnv;
+
+                    for (Stmt statement : importedDeclarations) {
+                        if (statement instanceof Stmt.Function || statement instanceof Stmt.Var || statement instanceof Stmt.Import) {
+                            execute(statement);
+                        }
                     }
+                } finally {
+                    this.environment = previous;
                 }
-            } finally {
-                this.environment = previous;
+                finishModule(stmt);
+                shareModule(stmt, importedEnv);
             }
 
             environment.defineNamespace(stmt.name.lexeme, importedEnv);
         } else {
+            List<Stmt> importedDeclarations = loadModule(stmt);
             for (Stmt statement : importedDeclarations) {
                 if (statement instanceof Stmt.Function || statement instanceof Stmt.Var || statement instanceof Stmt.Import) {
                     execute(statement);
                 }
             }
+            finishModule(stmt);
         }
-        scoopedFiles.remove(Paths.get((String) stmt.path.literal).toAbsolutePath());
 
         return null;
     }
 
-    private List<Stmt> loadAndParseFile(Token path) throws IOException {
+    // The namespace an earlier `into` import of the same module initialized, or null.
+    Environment sharedModule(Stmt.Import stmt) {
+        return modules.get(moduleKey(stmt));
+    }
+
+    void shareModule(Stmt.Import stmt, Environment module) {
+        modules.put(moduleKey(stmt), module);
+    }
+
+    private static String moduleKey(Stmt.Import stmt) {
+        String importPath = (String) stmt.path.literal;
+        if (importPath.startsWith("larder/")) {
+            return larderFile(importPath);
+        }
+        return Paths.get(importPath).toAbsolutePath().normalize().toString();
+    }
+
+    List<Stmt> loadModule(Stmt.Import stmt) {
+        try {
+            return loadAndParseFile(stmt.path, stmt.name == null);
+        } catch (IOException e) {
+            throw new RuntimeError(stmt.path, "Error importing file " + stmt.path.lexeme + ".", new ArrayList<>());
+        }
+    }
+
+    void finishModule(Stmt.Import stmt) {
+        scoopedFiles.remove(Paths.get((String) stmt.path.literal).toAbsolutePath());
+    }
+
+    // A flat module runs in the importer's scope, see Optimizer.optimize.
+    private List<Stmt> loadAndParseFile(Token path, boolean flat) throws IOException {
         String importPath = (String) path.literal;
         List<Stmt> parsedStatements = new ArrayList<>();
 
         if (importPath.startsWith("larder/")) {
-            String stdlibFilePath = "/stdlib" + importPath.substring("larder".length()) + ".tah";
-            parsedStatements.addAll(loadSingleStdlibModule(stdlibFilePath, path));
+            parsedStatements.addAll(loadSingleStdlibModule(larderFile(importPath), path, flat));
         } else {
             Path filePath = Paths.get(importPath).toAbsolutePath();
             if (scoopedFiles.contains(filePath)) {
@@ -258,37 +342,54 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
             byte[] bytes = Files.readAllBytes(filePath);
             String source = new String(bytes, Charset.defaultCharset());
-            parsedStatements.addAll(parseSource(source, importPath));
+            parsedStatements.addAll(parseSource(filePath.toRealPath().toString(), importPath, source, false, flat));
         }
 
         return parsedStatements;
     }
 
-    private List<Stmt> loadSingleStdlibModule(String stdlibFilePath, Token path) throws IOException {
+    // resource holding a larder module, e.g. /stdlib/math.tah for larder/math
+    static String larderFile(String importPath) {
+        return "/stdlib" + importPath.substring("larder".length()) + ".tah";
+    }
+
+    private List<Stmt> loadSingleStdlibModule(String stdlibFilePath, Token path, boolean flat) throws IOException {
+        return parseSource(stdlibFilePath, stdlibFilePath, larderSource(stdlibFilePath, path), true, flat);
+    }
+
+    String larderSource(String stdlibFilePath, Token path) throws IOException {
         InputStream stdlibStream = getClass().getResourceAsStream(stdlibFilePath);
         if (stdlibStream == null) {
             throw new RuntimeError(path, "File " + stdlibFilePath + " not found in the larder.", new ArrayList<>());
         }
+        return larderText(stdlibStream);
+    }
 
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stdlibStream, StandardCharsets.UTF_8))) {
-            String source = reader.lines().collect(Collectors.joining("\n"));
-            return parseSource(source, stdlibFilePath);
+    // The text of a larder module as it is parsed, also when the build precompiles it.
+    static String larderText(InputStream stream) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            return reader.lines().collect(Collectors.joining("\n"));
         }
     }
 
-    private List<Stmt> parseSource(String source, String sourcePath) {
-        Parser parser = new Parser(new Scanner(source, sourcePath).scanTokens(), false);
-        List<Stmt> allStatements = parser.parse();
-
-        return allStatements.stream()
+    private List<Stmt> parseSource(String modulePath, String sourcePath, String source, boolean larder, boolean flat) {
+        List<Stmt> declarations = ModuleCache.parse(modulePath, sourcePath, source, larder).stream()
                 .filter(stmt -> stmt instanceof Stmt.Function || stmt instanceof Stmt.Var || stmt instanceof Stmt.Import)
                 .collect(Collectors.toList());
+        declarations = new Optimizer(this).optimize(declarations, flat);
+        new Resolver().resolve(declarations);
+
+        return declarations;
     }
 
     @Override
-    public Void visitTestStmt(Stmt.Test stmt) {
+    public Completion visitTestStmt(Stmt.Test stmt) {
         try {
-            execute(stmt.body);
+            // a test that returns or breaks out of its body records no result
+            Completion completion = execute(stmt.body);
+            if (completion != null) {
+                return completion;
+            }
             testResults.add("PASS " + "(line " + stmt.name.line + ")" + ": " + stmt.name.literal);
         } catch (RuntimeError error) {
             testResults.add("FAIL " + "(line " + stmt.name.line + ")" + ": " + stmt.name.literal + " (" + error.getMessage() + ")");
@@ -297,46 +398,64 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
-        TahiniFunction function = new TahiniFunction(stmt);
-        environment.define(stmt.name.lexeme, function);
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
+        TahiniFunction function = new TahiniFunction(stmt, environment);
+        if (stmt.slot >= 0) {
+            environment.defineAt(stmt.slot, function);
+        } else {
+            environment.define(stmt.name.lexeme, function);
+        }
         return null;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
+    public Completion visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
         System.out.println(stringify(value));
         return null;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
-        Object value = null;
-        if (stmt.value != null) {
-            value = evaluate(stmt.value);
+    public Completion visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.tailCall) {
+            Expr.Call call = (Expr.Call) stmt.value;
+            Object callee = callee(call);
+            List<Object> arguments = new ArrayList<>(call.arguments.size());
+            for (Expr argument : call.arguments) {
+                arguments.add(evaluate(argument));
+            }
+            returnValue = tailCall(call, callee, arguments);
+            return Completion.RETURN;
         }
 
-        throw new Return(value);
+        returnValue = stmt.value != null ? evaluate(stmt.value) : null;
+        return Completion.RETURN;
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Completion visitVarStmt(Stmt.Var stmt) {
         Object initVal = null;
         if (stmt.initializer != null) {
             initVal = evaluate(stmt.initializer);
         }
-        environment.define(stmt.name.lexeme, initVal);
+        if (stmt.slot >= 0) {
+            environment.defineAt(stmt.slot, initVal);
+        } else {
+            environment.define(stmt.name.lexeme, initVal);
+        }
         return null;
     }
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
         Object right = evaluate(expr.right);
-        Token operator = expr.operator;
+        return unaryOp(expr.operator, right);
+    }
+
+    Object unaryOp(Token operator, Object right) {
         return switch (operator.type) {
             case TokenType.MINUS -> {
-                checkNumberOperand(expr.operator, right);
+                checkNumberOperand(operator, right);
                 yield -(double) right;
             }
             case TokenType.BANG ->
@@ -348,6 +467,9 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth >= 0) {
+            return environment.getAt(expr.depth, expr.slot, expr.name);
+        }
         return environment.getValue(expr.name);
     }
 
@@ -385,54 +507,55 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitBinaryExpr(Expr.Binary expr) {
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
+        return binaryOp(expr.operator, left, right);
+    }
 
-        return switch (expr.operator.type) {
+    Object binaryOp(Token operator, Object left, Object right) {
+        return switch (operator.type) {
             case MINUS -> {
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 yield (double) left - (double) right;
             }
             case SLASH -> {
-                checkNumberOperands(expr.operator, left, right);
-                checkZDE(expr.operator, right);
+                checkNumberOperands(operator, left, right);
+                checkZDE(operator, right);
                 yield (double) left / (double) right;
             }
             case STAR -> {
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 yield (double) left * (double) right;
             }
             case MODULO -> {
-                checkNumberOperands(expr.operator, left, right);
-                checkZDE(expr.operator, right);
+                checkNumberOperands(operator, left, right);
+                checkZDE(operator, right);
                 yield (double) left % (double) right;
             }
             case PLUS -> {
                 if (left instanceof Double && right instanceof Double) {
                     yield (double) left + (double) right;
                 }
-                if (left instanceof String || right instanceof String) {
-                    yield (String) stringify(left) + (String) stringify(right);
+                if (left instanceof CharSequence || right instanceof CharSequence) {
+                    yield TahiniString.concat(text(left), text(right));
                 }
-                if (left instanceof List && right instanceof List) {
-                    List<Object> tahiniList = new ArrayList<>((List<Object>) left);
-                    tahiniList.addAll((List<Object>) right);
-                    yield tahiniList;
+                if (left instanceof List<?> a && right instanceof List<?> b) {
+                    yield TahiniVector.of(a).concat(TahiniVector.of(b));
                 }
-                throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.", new ArrayList<>());
+                throw new RuntimeError(operator, "Operands must be two numbers or two strings.", new ArrayList<>());
             }
             case GREATER -> {
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 yield (double) left > (double) right;
             }
             case GREATER_EQUAL -> {
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 yield (double) left >= (double) right;
             }
             case LESS -> {
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 yield (double) left < (double) right;
             }
             case LESS_EQUAL -> {
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 yield (double) left <= (double) right;
             }
             case BANG_EQUAL ->
@@ -447,50 +570,91 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
-        Object callee = evaluate(expr.callee);
+        Object callee = callee(expr);
+
+        List<Expr> arguments = expr.arguments;
+        return switch (arguments.size()) {
+            case 0 ->
+                call(expr, callee, 0, null, null, null, null);
+            case 1 ->
+                call(expr, callee, 1, evaluate(arguments.get(0)), null, null, null);
+            case 2 -> {
+                Object a = evaluate(arguments.get(0));
+                yield call(expr, callee, 2, a, evaluate(arguments.get(1)), null, null);
+            }
+            case 3 -> {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                yield call(expr, callee, 3, a, b, evaluate(arguments.get(2)), null);
+            }
+            default -> {
+                List<Object> values = new ArrayList<>(arguments.size());
+                for (Expr argument : arguments) {
+                    values.add(evaluate(argument));
+                }
+                yield call(expr, callee, values.size(), null, null, null, values);
+            }
+        };
+    }
 
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument : expr.arguments) {
-            arguments.add(evaluate(argument));
+    private Object callee(Expr.Call expr) {
+        return expr.cacheable ? InlineCache.callee(expr, environment) : evaluate(expr.callee);
+    }
+
+    // The value returned by `return f(...)`: a TailCall for a Tahini function
+    // f, which the returning function runs in its place. Other callees are
+    // called as usual.
+    Object tailCall(Expr.Call expr, Object callee, List<Object> arguments) {
+        int argCount = arguments.size();
+        if (callee instanceof TahiniFunction function && function.arity() == argCount) {
+            return new TailCall(function, arguments, expr.discharged, expr.paren);
         }
+        return call(expr, callee, argCount, argCount > 0 ? arguments.get(0) : null,
+                argCount > 1 ? arguments.get(1) : null, argCount > 2 ? arguments.get(2) : null, arguments);
+    }
 
+    // Up to three arguments are passed inline as a, b and c and reach the
+    // callee through its call0..call3 entry points, so no argument list is
+    // built. Longer argument lists come in as arguments.
+    Object call(Expr.Call expr, Object callee, int argCount, Object a, Object b, Object c, List<Object> arguments) {
         if (!(callee instanceof TahiniCallable)) {
             throw new RuntimeError(expr.paren,
                     "Can only call functions and classes.", new ArrayList<>());
         }
 
         TahiniCallable function = (TahiniCallable) callee;
-        if (arguments.size() != function.arity()) {
+        if (argCount != function.arity()) {
             throw new RuntimeError(expr.paren, "Expected "
                     + function.arity() + " arguments but got "
-                    + arguments.size() + ".", new ArrayList<>());
+                    + argCount + ".", new ArrayList<>());
         }
 
-        CallFrame frame = new CallFrame(function, expr.paren.line, expr.paren.filename);
-
-        callStack.push(frame);
+        callStack.push(function, expr.paren);
+        discharged = expr.discharged && function instanceof TahiniFunction;
 
         Object result;
         try {
             this.functionDepth++;
-            if (expr.callee instanceof Expr.NamespacedVariable namespacedVariable) {
-                List<Token> nameParts = namespacedVariable.nameParts;
-                Environment env = environment;
-                Environment previousEnv = environment;
-                for (int i = 0; i < nameParts.size() - 1; i++) {
-                    env = env.getNamespace(nameParts.get(i));
-                }
-                this.environment = env;
-                result = function.call(this, arguments);
-                this.environment = previousEnv;
-            } else {
-                result = function.call(this, arguments);
-            }
+            result = switch (argCount) {
+                case 0 ->
+                    function.call0(this);
+                case 1 ->
+                    function.call1(this, a);
+                case 2 ->
+                    function.call2(this, a, b);
+                case 3 ->
+                    function.call3(this, a, b, c);
+                default ->
+                    function.call(this, arguments);
+            };
         } catch (RuntimeError error) {
+            if (expr.inlined != null) {
+                callStack.restoreInlined(expr.inlined);
+            }
             if (error.token == null) {
-                throw new RuntimeError(expr.paren, error.getMessage(), new ArrayList<>(callStack));
+                throw new RuntimeError(expr.paren, error.getMessage(), callStack.snapshot());
             }
-            throw new RuntimeError(error.token, error.getMessage(), new ArrayList<>(callStack));
+            throw new RuntimeError(error.token, error.getMessage(), callStack.snapshot());
         } finally {
             this.functionDepth--;
         }
@@ -504,40 +668,44 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitListAccessExpr(Expr.ListAccess expr) {
         Object collection = evaluate(expr.list);
         Object index = evaluate(expr.index);
+        return listAccess(expr.paren, collection, index);
+    }
 
-        if (!(collection instanceof List || collection instanceof String || collection instanceof Map)) {
-            throw new RuntimeError(expr.paren, "Can only access elements of a list, map or a string.", new ArrayList<>());
+    Object listAccess(Token paren, Object collection, Object index) {
+        if (!(collection instanceof List || collection instanceof CharSequence || collection instanceof Map)) {
+            throw new RuntimeError(paren, "Can only access elements of a list, map or a string.", new ArrayList<>());
         }
 
         return switch (collection) {
             case List<?> list -> {
                 if (!(index instanceof Double)) {
-                    throw new RuntimeError(expr.paren, "Index must be a number for list access.", new ArrayList<>());
+                    throw new RuntimeError(paren, "Index must be a number for list access.", new ArrayList<>());
                 }
                 int i = ((Double) index).intValue();
                 if (i < 0 || i >= list.size()) {
-                    throw new RuntimeError(expr.paren, "Index out of bounds.", new ArrayList<>());
+                    throw new RuntimeError(paren, "Index out of bounds.", new ArrayList<>());
                 }
                 yield list.get(i);
             }
-            case String str -> {
+            case CharSequence str -> {
                 if (!(index instanceof Double)) {
-                    throw new RuntimeError(expr.paren, "Index must be a number for string access.", new ArrayList<>());
+                    throw new RuntimeError(paren, "Index must be a number for string access.", new ArrayList<>());
                 }
                 int i = ((Double) index).intValue();
                 if (i < 0 || i >= str.length()) {
-                    throw new RuntimeError(expr.paren, "Index out of bounds.", new ArrayList<>());
+                    throw new RuntimeError(paren, "Index out of bounds.", new ArrayList<>());
                 }
                 yield String.valueOf(str.charAt(i));
             }
             case Map<?, ?> map -> {
-                if (!map.containsKey(index)) {
-                    throw new RuntimeError(expr.paren, "Key not found in map.", new ArrayList<>());
+                Object key = TahiniString.flatten(index);
+                if (!map.containsKey(key)) {
+                    throw new RuntimeError(paren, "Key not found in map.", new ArrayList<>());
                 }
-                yield map.get(index);
+                yield map.get(key);
             }
             default ->
-                throw new RuntimeError(expr.paren, "Unexpected error.", new ArrayList<>());
+                throw new RuntimeError(paren, "Unexpected error.", new ArrayList<>());
         };
     }
 
@@ -546,13 +714,16 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         Object collection = evaluate(expr.list);
         Object start = evaluate(expr.start);
         Object end = evaluate(expr.end);
+        return listSlice(expr.paren, collection, start, end);
+    }
 
-        if (!(collection instanceof List || collection instanceof String)) {
-            throw new RuntimeError(expr.paren, "Can only slice a list or a string.", new ArrayList<>());
+    Object listSlice(Token paren, Object collection, Object start, Object end) {
+        if (!(collection instanceof List || collection instanceof CharSequence)) {
+            throw new RuntimeError(paren, "Can only slice a list or a string.", new ArrayList<>());
         }
 
         if (!(start instanceof Double) || !(end instanceof Double)) {
-            throw new RuntimeError(expr.paren, "Start and end must be numbers.", new ArrayList<>());
+            throw new RuntimeError(paren, "Start and end must be numbers.", new ArrayList<>());
         }
 
         int s = ((Double) start).intValue();
@@ -561,18 +732,18 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return switch (collection) {
             case List<?> list -> {
                 if (s < 0 || e < 0 || s > e || e > list.size()) {
-                    throw new RuntimeError(expr.paren, "Index out of bounds.", new ArrayList<>());
+                    throw new RuntimeError(paren, "Index out of bounds.", new ArrayList<>());
                 }
-                yield list.subList(s, e);
+                yield TahiniVector.of(list).slice(s, e);
             }
-            case String str -> {
+            case CharSequence str -> {
                 if (s < 0 || e < 0 || s > e || e > str.length()) {
-                    throw new RuntimeError(expr.paren, "Index out of bounds.", new ArrayList<>());
+                    throw new RuntimeError(paren, "Index out of bounds.", new ArrayList<>());
                 }
-                yield str.substring(s, e);
+                yield TahiniString.slice(str, s, e);
             }
             default ->
-                throw new RuntimeError(expr.paren, "Unexpected error.", new ArrayList<>());
+                throw new RuntimeError(paren, "Unexpected error.", new ArrayList<>());
         };
     }
 
@@ -590,29 +761,33 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
     }
 
-    private Boolean isEqual(Object a, Object b) {
+    Boolean isEqual(Object a, Object b) {
         if (a == null && b == null) {
             return true;
         }
         if (a == null) {
             return false;
         }
+        if (a instanceof TahiniString || b instanceof TahiniString) {
+            return TahiniString.contentEquals(a, b);
+        }
         return a.equals(b);
     }
 
     @Override
     public Object visitTernaryExpr(Expr.Ternary expr) {
-        Object condition = evaluate(expr.condition);
-        Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right);
-        return isTruthy(condition) ? left : right;
+        return isTruthy(evaluate(expr.condition)) ? evaluate(expr.left) : evaluate(expr.right);
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Token variable = expr.name;
         Object value = evaluate(expr.value);
-        environment.assign(variable, value);
+        if (expr.depth >= 0) {
+            environment.assignAt(expr.depth, expr.slot, variable, value);
+        } else {
+            environment.assign(variable, value);
+        }
         return value;
     }
 
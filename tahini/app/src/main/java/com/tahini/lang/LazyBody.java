@@ -0,0 +1,57 @@
+package com.tahini.lang;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bodies of the top-level functions of a scooped module, which the Parser
+ * skips and keeps as tokens: a module with hundreds of functions is mostly
+ * function bodies, and a script tends to call few of them. A skipped
+ * function keeps its name, parameters and contracts, so it can be declared,
+ * checked and discharged against like any other, and the Effects of its
+ * body are read off the tokens.
+ *
+ * The body is parsed the first time the function is called, then optimized
+ * by the Optimizer of its module and resolved, as it would have been with
+ * the rest of the module. A syntax error in it is reported then, once, and
+ * that call and every later one fail. It is not a syntax error of the
+ * program, which has already started: the program ends with the call's
+ * runtime error. With --test every module is parsed whole, so its syntax
+ * errors are reported before anything runs.
+ */
+final class LazyBody {
+
+    private LazyBody() {
+    }
+
+    // Parses the body of the function if the Parser skipped it.
+    static void parse(Stmt.Function function) {
+        if (function.broken) {
+            throw syntaxError(function);
+        }
+        if (function.pending == null) {
+            return;
+        }
+        boolean hadError = Tahini.hadError;
+        List<Stmt> body;
+        try {
+            body = new Parser(function.unparsed, false).functionBody();
+        } finally {
+            Tahini.hadError = hadError;
+        }
+        if (body == null) {
+            // pending stays set, so no engine takes the empty body for the real one
+            function.broken = true;
+            throw syntaxError(function);
+        }
+
+        function.pending.optimizeParsed(function, body);
+        function.pending = null;
+        new Resolver().resolve(List.of(function));
+    }
+
+    private static RuntimeError syntaxError(Stmt.Function function) {
+        return new RuntimeError(function.name,
+                "Syntax error in the body of '" + function.name.lexeme + "'.", new ArrayList<>());
+    }
+}
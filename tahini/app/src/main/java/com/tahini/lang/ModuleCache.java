@@ -0,0 +1,77 @@
+package com.tahini.lang;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Parsed modules, shared by every Interpreter in the process, so a module
+ * scooped again, by another module or another Interpreter, is not scanned
+ * and parsed again. A module parsed in an earlier run may also come from
+ * the AstCache, and a larder module from the .tahc file the build bundles
+ * with it. Entries are keyed by the canonical path of the module
+ * and hold the source they were parsed from and the file name its tokens
+ * report: a changed file is a miss and replaces its entry.
+ *
+ * Modules other than the larder are parsed without the bodies of their
+ * functions, see LazyBody, unless --test asks for every syntax error up
+ * front.
+ *
+ * The cached trees are never run themselves. The Optimizer, the Resolver
+ * and inline caches annotate the statements they are given, so every load
+ * gets its own copy.
+ */
+final class ModuleCache {
+
+    private record Entry(String filename, String source, List<Stmt> statements) {
+    }
+
+    private static final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    // off with --test, so every syntax error is reported before the program runs
+    static boolean lazy = true;
+
+    private ModuleCache() {
+    }
+
+    // A copy of the statements this module parses to.
+    static List<Stmt> parse(String path, String filename, String source, boolean larder) {
+        Entry entry = entries.get(path);
+        if (entry != null && entry.filename.equals(filename) && entry.source.equals(source)) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            List<Stmt> statements = larder ? AstCache.loadLarder(path, source) : null;
+            boolean skipBodies = lazy && !larder;
+            if (statements == null) {
+                statements = AstCache.load(path, filename, source, false, skipBodies);
+            }
+            boolean hadError = Tahini.hadError;
+            Tahini.hadError = false;
+            if (statements == null) {
+                statements = new Parser(new Scanner(source, filename).scanTokens(), false, skipBodies).parse();
+                if (!Tahini.hadError) {
+                    AstCache.save(path, filename, source, false, skipBodies, statements);
+                }
+            }
+            entry = new Entry(filename, source, statements);
+            // a module with syntax errors reports them on every import
+            if (!Tahini.hadError) {
+                entries.put(path, entry);
+            }
+            Tahini.hadError |= hadError;
+        }
+        return Stmt.copyAll(entry.statements);
+    }
+
+    static boolean used() {
+        return hits.get() + misses.get() > 0;
+    }
+
+    static String stats() {
+        return "[modules] " + misses.get() + " parsed, " + hits.get() + " reused.";
+    }
+}
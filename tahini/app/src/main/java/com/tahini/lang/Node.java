@@ -0,0 +1,889 @@
+package com.tahini.lang;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Executable tree built once from the resolved AST by the NodeCompiler.
+ * Every node already knows which operation it performs, so running it needs
+ * neither visitor dispatch nor a switch on the operator type. Nodes run
+ * against the interpreter's current environment, which keeps them
+ * interchangeable with the AST nodes the Interpreter still evaluates.
+ *
+ * Arithmetic and local variable nodes also specialize on type feedback.
+ * While they have only seen numbers they pass them around unboxed through
+ * executeDouble and keep locals in unboxed slots. The first value of any
+ * other type switches a node to its generic path for good.
+ */
+abstract class Node {
+
+    // Thrown by executeDouble when a node produced something other than a
+    // number. It carries the value, so the caller can finish generically.
+    static final class UnexpectedResult extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        // never serialized, it only crosses a few Java frames
+        final transient Object result;
+
+        UnexpectedResult(Object result) {
+            super(null, null, false, false);
+            this.result = result;
+        }
+    }
+
+    // Expressions return their value, statements their Completion.
+    abstract Object execute(Interpreter interpreter);
+
+    double executeDouble(Interpreter interpreter) {
+        return expectDouble(execute(interpreter));
+    }
+
+    // For statements, which can skip boxing a result nobody reads.
+    void executeVoid(Interpreter interpreter) {
+        execute(interpreter);
+    }
+
+    static double expectDouble(Object value) {
+        if (value instanceof Double d) {
+            return d;
+        }
+        throw new UnexpectedResult(value);
+    }
+
+    // Fallback for node kinds the NodeCompiler does not handle.
+    static class Interpreted extends Node {
+
+        final Expr expr;
+
+        Interpreted(Expr expr) {
+            this.expr = expr;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            return interpreter.evaluate(expr);
+        }
+    }
+
+    static class InterpretedStmt extends Node {
+
+        final Stmt stmt;
+
+        InterpretedStmt(Stmt stmt) {
+            this.stmt = stmt;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            return interpreter.execute(stmt);
+        }
+    }
+
+    static class Constant extends Node {
+
+        final Object value;
+        final boolean isNumber;
+        final double number;
+
+        Constant(Object value) {
+            this.value = value;
+            this.isNumber = value instanceof Double;
+            this.number = isNumber ? (Double) value : 0;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            return value;
+        }
+
+        @Override
+        double executeDouble(Interpreter interpreter) {
+            if (isNumber) {
+                return number;
+            }
+            throw new UnexpectedResult(value);
+        }
+    }
+
+    static class GetLocal extends Node {
+
+        final int depth;
+        final int slot;
+        final Token name;
+
+        GetLocal(int depth, int slot, Token name) {
+            this.depth = depth;
+            this.slot = slot;
+            this.name = name;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            return interpreter.environment.getAt(depth, slot, name);
+        }
+
+        @Override
+        double executeDouble(Interpreter interpreter) {
+            Environment env = interpreter.environment.ancestor(depth);
+            if (env.isUnboxed(slot)) {
+                return env.getUnboxed(slot);
+            }
+            return expectDouble(env.getAt(0, slot, name));
+        }
+    }
+
+    static class GetName extends Node {
+
+        final Token name;
+
+        GetName(Token name) {
+            this.name = name;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            return interpreter.environment.getValue(name);
+        }
+    }
+
+    static class SetLocal extends Node {
+
+        final int depth;
+        final int slot;
+        final Token name;
+        final Node value;
+        private boolean generic = false;
+
+        SetLocal(int depth, int slot, Token name, Node value) {
+            this.depth = depth;
+            this.slot = slot;
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            if (!generic) {
+                try {
+                    double number = value.executeDouble(interpreter);
+                    interpreter.environment.assignUnboxedAt(depth, slot, name, number);
+                    return number;
+                } catch (UnexpectedResult e) {
+                    generic = true;
+                    interpreter.environment.assignAt(depth, slot, name, e.result);
+                    return e.result;
+                }
+            }
+            Object result = value.execute(interpreter);
+            interpreter.environment.assignAt(depth, slot, name, result);
+            return result;
+        }
+
+        @Override
+        void executeVoid(Interpreter interpreter) {
+            if (!generic) {
+                try {
+                    interpreter.environment.assignUnboxedAt(depth, slot, name, value.executeDouble(interpreter));
+                    return;
+                } catch (UnexpectedResult e) {
+                    generic = true;
+                    interpreter.environment.assignAt(depth, slot, name, e.result);
+                    return;
+                }
+            }
+            interpreter.environment.assignAt(depth, slot, name, value.execute(interpreter));
+        }
+    }
+
+    static class SetName extends Node {
+
+        final Token name;
+        final Node value;
+
+        SetName(Token name, Node value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            Object result = value.execute(interpreter);
+            interpreter.environment.assign(name, result);
+            return result;
+        }
+    }
+
+    static class Negate extends Node {
+
+        final Token operator;
+        final Node right;
+
+        Negate(Token operator, Node right) {
+            this.operator = operator;
+            this.right = right;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            return executeDouble(interpreter);
+        }
+
+        // anything but a number is an error, so there is no generic path
+        @Override
+        double executeDouble(Interpreter interpreter) {
+            try {
+                return -right.executeDouble(interpreter);
+            } catch (UnexpectedResult e) {
+                return expectDouble(interpreter.unaryOp(operator, e.result));
+            }
+        }
+    }
+
+    static class Not extends Node {
+
+        final Node right;
+
+        Not(Node right) {
+            this.right = right;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            return !interpreter.isTruthy(right.execute(interpreter));
+        }
+    }
+
+    // Binary operators. Numbers are handled by the nodes themselves, anything
+    // else goes to Interpreter.binaryOp, which owns the error messages.
+    abstract static class BinaryNode extends Node {
+
+        final Node left;
+        final Token operator;
+        final Node right;
+
+        BinaryNode(Node left, Token operator, Node right) {
+            this.left = left;
+            this.operator = operator;
+            this.right = right;
+        }
+    }
+
+    // Each operator has its own executeDouble rather than sharing one with a
+    // switch: nested expressions would otherwise be recursive calls of the
+    // same method, which the JIT refuses to inline past one level.
+    abstract static class ArithmeticNode extends BinaryNode {
+
+        boolean generic = false;
+
+        ArithmeticNode(Node left, Token operator, Node right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            if (generic) {
+                return interpreter.binaryOp(operator, left.execute(interpreter), right.execute(interpreter));
+            }
+            try {
+                return executeDouble(interpreter);
+            } catch (UnexpectedResult e) {
+                return e.result;
+            }
+        }
+
+        final double generic(Interpreter interpreter) {
+            return expectDouble(execute(interpreter));
+        }
+
+        // division and modulo by zero, which binaryOp reports
+        final double generic(Interpreter interpreter, Object a, Object b) {
+            return expectDouble(interpreter.binaryOp(operator, a, b));
+        }
+
+        final double leftUnexpected(Interpreter interpreter, UnexpectedResult e) {
+            generic = true;
+            return generic(interpreter, e.result, right.execute(interpreter));
+        }
+
+        final double rightUnexpected(Interpreter interpreter, double a, UnexpectedResult e) {
+            generic = true;
+            return generic(interpreter, a, e.result);
+        }
+    }
+
+    static class NumberAdd extends ArithmeticNode {
+
+        NumberAdd(Node left, Token operator, Node right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        double executeDouble(Interpreter interpreter) {
+            if (generic) {
+                return generic(interpreter);
+            }
+            double a;
+            try {
+                a = left.executeDouble(interpreter);
+            } catch (UnexpectedResult e) {
+                return leftUnexpected(interpreter, e);
+            }
+            try {
+                return a + right.executeDouble(interpreter);
+            } catch (UnexpectedResult e) {
+                return rightUnexpected(interpreter, a, e);
+            }
+        }
+    }
+
+    static class NumberSubtract extends ArithmeticNode {
+
+        NumberSubtract(Node left, Token operator, Node right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        double executeDouble(Interpreter interpreter) {
+            if (generic) {
+                return generic(interpreter);
+            }
+            double a;
+            try {
+                a = left.executeDouble(interpreter);
+            } catch (UnexpectedResult e) {
+                return leftUnexpected(interpreter, e);
+            }
+            try {
+                return a - right.executeDouble(interpreter);
+            } catch (UnexpectedResult e) {
+                return rightUnexpected(interpreter, a, e);
+            }
+        }
+    }
+
+    static class NumberMultiply extends ArithmeticNode {
+
+        NumberMultiply(Node left, Token operator, Node right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        double executeDouble(Interpreter interpreter) {
+            if (generic) {
+                return generic(interpreter);
+            }
+            double a;
+            try {
+                a = left.executeDouble(interpreter);
+            } catch (UnexpectedResult e) {
+                return leftUnexpected(interpreter, e);
+            }
+            try {
+                return a * right.executeDouble(interpreter);
+            } catch (UnexpectedResult e) {
+                return rightUnexpected(interpreter, a, e);
+            }
+        }
+    }
+
+    static class NumberDivide extends ArithmeticNode {
+
+        NumberDivide(Node left, Token operator, Node right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        double executeDouble(Interpreter interpreter) {
+            if (generic) {
+                return generic(interpreter);
+            }
+            double a;
+            try {
+                a = left.executeDouble(interpreter);
+            } catch (UnexpectedResult e) {
+                return leftUnexpected(interpreter, e);
+            }
+            double b;
+            try {
+                b = right.executeDouble(interpreter);
+            } catch (UnexpectedResult e) {
+                return rightUnexpected(interpreter, a, e);
+            }
+            return b != 0 ? a / b : generic(interpreter, a, b);
+        }
+    }
+
+    static class NumberModulo extends ArithmeticNode {
+
+        NumberModulo(Node left, Token operator, Node right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        double executeDouble(Interpreter interpreter) {
+            if (generic) {
+                return generic(interpreter);
+            }
+            double a;
+            try {
+                a = left.executeDouble(interpreter);
+            } catch (UnexpectedResult e) {
+                return leftUnexpected(interpreter, e);
+            }
+            double b;
+            try {
+                b = right.executeDouble(interpreter);
+            } catch (UnexpectedResult e) {
+                return rightUnexpected(interpreter, a, e);
+            }
+            return b != 0 ? a % b : generic(interpreter, a, b);
+        }
+    }
+
+    // Comparisons only accept numbers, so leaving the unboxed path means an error.
+    static class NumberComparison extends BinaryNode {
+
+        NumberComparison(Node left, Token operator, Node right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            double a;
+            try {
+                a = left.executeDouble(interpreter);
+            } catch (UnexpectedResult e) {
+                return interpreter.binaryOp(operator, e.result, right.execute(interpreter));
+            }
+            double b;
+            try {
+                b = right.executeDouble(interpreter);
+            } catch (UnexpectedResult e) {
+                return interpreter.binaryOp(operator, a, e.result);
+            }
+            return switch (operator.type) {
+                case GREATER -> a > b;
+                case GREATER_EQUAL -> a >= b;
+                case LESS -> a < b;
+                default -> a <= b;
+            };
+        }
+    }
+
+    static class Equal extends BinaryNode {
+
+        Equal(Node left, Token operator, Node right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            return interpreter.isEqual(left.execute(interpreter), right.execute(interpreter));
+        }
+    }
+
+    static class NotEqual extends BinaryNode {
+
+        NotEqual(Node left, Token operator, Node right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            return !interpreter.isEqual(left.execute(interpreter), right.execute(interpreter));
+        }
+    }
+
+    static class And extends Node {
+
+        final Node left;
+        final Node right;
+
+        And(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            Object value = left.execute(interpreter);
+            return interpreter.isTruthy(value) ? right.execute(interpreter) : value;
+        }
+    }
+
+    static class Or extends Node {
+
+        final Node left;
+        final Node right;
+
+        Or(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            Object value = left.execute(interpreter);
+            return interpreter.isTruthy(value) ? value : right.execute(interpreter);
+        }
+    }
+
+    static class Ternary extends Node {
+
+        final Node condition;
+        final Node left;
+        final Node right;
+
+        Ternary(Node condition, Node left, Node right) {
+            this.condition = condition;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            return interpreter.isTruthy(condition.execute(interpreter))
+                    ? left.execute(interpreter) : right.execute(interpreter);
+        }
+    }
+
+    static class CachedCallee extends Node {
+
+        final Expr.Call call;
+
+        CachedCallee(Expr.Call call) {
+            this.call = call;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            return InlineCache.callee(call, interpreter.environment);
+        }
+    }
+
+    static class Call extends Node {
+
+        final Expr.Call expr;
+        final Node callee;
+        final Node[] arguments;
+
+        Call(Expr.Call expr, Node callee, Node[] arguments) {
+            this.expr = expr;
+            this.callee = callee;
+            this.arguments = arguments;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            Object function = callee.execute(interpreter);
+            return switch (arguments.length) {
+                case 0 ->
+                    interpreter.call(expr, function, 0, null, null, null, null);
+                case 1 ->
+                    interpreter.call(expr, function, 1, arguments[0].execute(interpreter), null, null, null);
+                case 2 -> {
+                    Object a = arguments[0].execute(interpreter);
+                    Object b = arguments[1].execute(interpreter);
+                    yield interpreter.call(expr, function, 2, a, b, null, null);
+                }
+                case 3 -> {
+                    Object a = arguments[0].execute(interpreter);
+                    Object b = arguments[1].execute(interpreter);
+                    Object c = arguments[2].execute(interpreter);
+                    yield interpreter.call(expr, function, 3, a, b, c, null);
+                }
+                default -> {
+                    List<Object> values = new ArrayList<>(arguments.length);
+                    for (Node argument : arguments) {
+                        values.add(argument.execute(interpreter));
+                    }
+                    yield interpreter.call(expr, function, values.size(), null, null, null, values);
+                }
+            };
+        }
+    }
+
+    static class ListLiteral extends Node {
+
+        final Node[] elements;
+
+        ListLiteral(Node[] elements) {
+            this.elements = elements;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            Object[] items = new Object[elements.length];
+            for (int i = 0; i < items.length; i++) {
+                items[i] = TahiniString.flatten(elements[i].execute(interpreter));
+            }
+            return TahiniVector.of(items);
+        }
+    }
+
+    static class Index extends Node {
+
+        final Node collection;
+        final Token paren;
+        final Node index;
+
+        Index(Node collection, Token paren, Node index) {
+            this.collection = collection;
+            this.paren = paren;
+            this.index = index;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            Object target = collection.execute(interpreter);
+            return interpreter.listAccess(paren, target, index.execute(interpreter));
+        }
+
+        // Reads a numeric list without boxing the element.
+        @Override
+        double executeDouble(Interpreter interpreter) {
+            Object target = collection.execute(interpreter);
+            Object key = index.execute(interpreter);
+            if (target instanceof TahiniVector vector && vector.isNumeric() && key instanceof Double number) {
+                int i = number.intValue();
+                if (i >= 0 && i < vector.size()) {
+                    return vector.numberAt(i);
+                }
+            }
+            return expectDouble(interpreter.listAccess(paren, target, key));
+        }
+    }
+
+    static class Expression extends Node {
+
+        final Node expression;
+
+        Expression(Node expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            expression.executeVoid(interpreter);
+            return null;
+        }
+    }
+
+    static class Print extends Node {
+
+        final Node expression;
+
+        Print(Node expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            System.out.println(interpreter.stringify(expression.execute(interpreter)));
+            return null;
+        }
+    }
+
+    static class DefineLocal extends Node {
+
+        final int slot;
+        final Node initializer;
+        private boolean generic;
+
+        DefineLocal(int slot, Node initializer) {
+            this.slot = slot;
+            this.initializer = initializer;
+            this.generic = initializer == null;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            if (!generic) {
+                try {
+                    interpreter.environment.defineUnboxedAt(slot, initializer.executeDouble(interpreter));
+                    return null;
+                } catch (UnexpectedResult e) {
+                    generic = true;
+                    interpreter.environment.defineAt(slot, e.result);
+                    return null;
+                }
+            }
+            Object value = initializer != null ? initializer.execute(interpreter) : null;
+            interpreter.environment.defineAt(slot, value);
+            return null;
+        }
+    }
+
+    static class DefineName extends Node {
+
+        final String name;
+        final Node initializer;
+
+        DefineName(String name, Node initializer) {
+            this.name = name;
+            this.initializer = initializer;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            Object value = initializer != null ? initializer.execute(interpreter) : null;
+            interpreter.environment.define(name, value);
+            return null;
+        }
+    }
+
+    static class Function extends Node {
+
+        final Stmt.Function declaration;
+        final Node body;
+
+        Function(Stmt.Function declaration, Node body) {
+            this.declaration = declaration;
+            this.body = body;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            TahiniFunction function = new TahiniFunction(declaration, interpreter.environment, body);
+            if (declaration.slot >= 0) {
+                interpreter.environment.defineAt(declaration.slot, function);
+            } else {
+                interpreter.environment.define(declaration.name.lexeme, function);
+            }
+            return null;
+        }
+    }
+
+    // Statements run in the current environment, e.g. a whole script or a function body.
+    static class Sequence extends Node {
+
+        final Node[] statements;
+
+        Sequence(Node[] statements) {
+            this.statements = statements;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            for (Node statement : statements) {
+                Object completion = statement.execute(interpreter);
+                if (completion != null) {
+                    return completion;
+                }
+            }
+            return null;
+        }
+    }
+
+    static class Block extends Node {
+
+        final String[] locals;
+        final Node body;
+
+        Block(String[] locals, Node body) {
+            this.locals = locals;
+            this.body = body;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            return interpreter.executeBlock(body, new Environment(interpreter.environment, locals));
+        }
+    }
+
+    static class If extends Node {
+
+        final Node condition;
+        final Node thenBranch;
+        final Node elseBranch;
+
+        If(Node condition, Node thenBranch, Node elseBranch) {
+            this.condition = condition;
+            this.thenBranch = thenBranch;
+            this.elseBranch = elseBranch;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            if (interpreter.isTruthy(condition.execute(interpreter))) {
+                return thenBranch.execute(interpreter);
+            } else if (elseBranch != null) {
+                return elseBranch.execute(interpreter);
+            }
+            return null;
+        }
+    }
+
+    static class While extends Node {
+
+        final Node condition;
+        final Node body;
+
+        While(Node condition, Node body) {
+            this.condition = condition;
+            this.body = body;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            while (interpreter.isTruthy(condition.execute(interpreter))) {
+                Object completion = body.execute(interpreter);
+                if (completion != null) {
+                    if (completion == Completion.BREAK) {
+                        break;
+                    }
+                    return completion;
+                }
+            }
+            return null;
+        }
+    }
+
+    static class Break extends Node {
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            return Completion.BREAK;
+        }
+    }
+
+    static class Return extends Node {
+
+        final Node value;
+
+        Return(Node value) {
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            interpreter.returnValue = value != null ? value.execute(interpreter) : null;
+            return Completion.RETURN;
+        }
+    }
+
+    static class TailReturn extends Node {
+
+        final Expr.Call call;
+        final Node callee;
+        final Node[] arguments;
+
+        TailReturn(Expr.Call call, Node callee, Node[] arguments) {
+            this.call = call;
+            this.callee = callee;
+            this.arguments = arguments;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            Object function = callee.execute(interpreter);
+            List<Object> values = new ArrayList<>(arguments.length);
+            for (Node argument : arguments) {
+                values.add(argument.execute(interpreter));
+            }
+            interpreter.returnValue = interpreter.tailCall(call, function, values);
+            return Completion.RETURN;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.tahini.lang;
+
+import java.util.List;
+
+/**
+ * Walks the resolved AST once and links it into a tree of executable Nodes
+ * for --engine=nodes. Node kinds without a specialized implementation yet
+ * are wrapped so the Interpreter evaluates them as before.
+ */
+class NodeCompiler implements Expr.Visitor<Node>, Stmt.Visitor<Node> {
+
+    static Node compile(List<Stmt> statements) {
+        return new NodeCompiler().sequence(statements);
+    }
+
+    private Node compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private Node compile(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private Node sequence(List<Stmt> statements) {
+        Node[] nodes = new Node[statements.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = compile(statements.get(i));
+        }
+        return new Node.Sequence(nodes);
+    }
+
+    private Node[] compileAll(List<Expr> exprs) {
+        Node[] nodes = new Node[exprs.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = compile(exprs.get(i));
+        }
+        return nodes;
+    }
+
+    @Override
+    public Node visitExpressionStmt(Stmt.Expression stmt) {
+        return new Node.Expression(compile(stmt.expression));
+    }
+
+    @Override
+    public Node visitFunctionStmt(Stmt.Function stmt) {
+        return new Node.Function(stmt, sequence(stmt.body));
+    }
+
+    @Override
+    public Node visitTestStmt(Stmt.Test stmt) {
+        return new Node.InterpretedStmt(stmt);
+    }
+
+    @Override
+    public Node visitPrintStmt(Stmt.Print stmt) {
+        return new Node.Print(compile(stmt.expression));
+    }
+
+    @Override
+    public Node visitIfStmt(Stmt.If stmt) {
+        Node elseBranch = stmt.elseBranch != null ? compile(stmt.elseBranch) : null;
+        return new Node.If(compile(stmt.condition), compile(stmt.thenBranch), elseBranch);
+    }
+
+    @Override
+    public Node visitVarStmt(Stmt.Var stmt) {
+        Node initializer = stmt.initializer != null ? compile(stmt.initializer) : null;
+        if (stmt.slot >= 0) {
+            return new Node.DefineLocal(stmt.slot, initializer);
+        }
+        return new Node.DefineName(stmt.name.lexeme, initializer);
+    }
+
+    @Override
+    public Node visitBlockStmt(Stmt.Block stmt) {
+        return new Node.Block(stmt.locals, sequence(stmt.statements));
+    }
+
+    @Override
+    public Node visitWhileStmt(Stmt.While stmt) {
+        return new Node.While(compile(stmt.condition), compile(stmt.body));
+    }
+
+    @Override
+    public Node visitBreakStmt(Stmt.Break stmt) {
+        return new Node.Break();
+    }
+
+    @Override
+    public Node visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.tailCall) {
+            Expr.Call call = (Expr.Call) stmt.value;
+            Node callee = call.cacheable ? new Node.CachedCallee(call) : compile(call.callee);
+            return new Node.TailReturn(call, callee, compileAll(call.arguments));
+        }
+        return new Node.Return(stmt.value != null ? compile(stmt.value) : null);
+    }
+
+    @Override
+    public Node visitContractStmt(Stmt.Contract stmt) {
+        return new Node.InterpretedStmt(stmt);
+    }
+
+    @Override
+    public Node visitImportStmt(Stmt.Import stmt) {
+        return new Node.InterpretedStmt(stmt);
+    }
+
+    @Override
+    public Node visitAssignExpr(Expr.Assign expr) {
+        Node value = compile(expr.value);
+        if (expr.depth >= 0) {
+            return new Node.SetLocal(expr.depth, expr.slot, expr.name, value);
+        }
+        return new Node.SetName(expr.name, value);
+    }
+
+    @Override
+    public Node visitBinaryExpr(Expr.Binary expr) {
+        Node left = compile(expr.left);
+        Node right = compile(expr.right);
+        Token operator = expr.operator;
+        return switch (operator.type) {
+            case PLUS ->
+                new Node.NumberAdd(left, operator, right);
+            case MINUS ->
+                new Node.NumberSubtract(left, operator, right);
+            case STAR ->
+                new Node.NumberMultiply(left, operator, right);
+            case SLASH ->
+                new Node.NumberDivide(left, operator, right);
+            case MODULO ->
+                new Node.NumberModulo(left, operator, right);
+            case GREATER, GREATER_EQUAL, LESS, LESS_EQUAL ->
+                new Node.NumberComparison(left, operator, right);
+            case EQUAL_EQUAL ->
+                new Node.Equal(left, operator, right);
+            case BANG_EQUAL ->
+                new Node.NotEqual(left, operator, right);
+            default ->
+                new Node.Interpreted(expr);
+        };
+    }
+
+    @Override
+    public Node visitCallExpr(Expr.Call expr) {
+        Node callee = expr.cacheable ? new Node.CachedCallee(expr) : compile(expr.callee);
+        return new Node.Call(expr, callee, compileAll(expr.arguments));
+    }
+
+    @Override
+    public Node visitListAccessExpr(Expr.ListAccess expr) {
+        return new Node.Index(compile(expr.list), expr.paren, compile(expr.index));
+    }
+
+    @Override
+    public Node visitListSliceExpr(Expr.ListSlice expr) {
+        return new Node.Interpreted(expr);
+    }
+
+    @Override
+    public Node visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public Node visitLiteralExpr(Expr.Literal expr) {
+        return new Node.Constant(expr.value);
+    }
+
+    @Override
+    public Node visitUnaryExpr(Expr.Unary expr) {
+        Node right = compile(expr.right);
+        return switch (expr.operator.type) {
+            case MINUS ->
+                new Node.Negate(expr.operator, right);
+            case BANG ->
+                new Node.Not(right);
+            default ->
+                new Node.Interpreted(expr);
+        };
+    }
+
+    @Override
+    public Node visitTernaryExpr(Expr.Ternary expr) {
+        return new Node.Ternary(compile(expr.condition), compile(expr.left), compile(expr.right));
+    }
+
+    @Override
+    public Node visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth >= 0) {
+            return new Node.GetLocal(expr.depth, expr.slot, expr.name);
+        }
+        return new Node.GetName(expr.name);
+    }
+
+    @Override
+    public Node visitNamespacedVariableExpr(Expr.NamespacedVariable expr) {
+        return new Node.Interpreted(expr);
+    }
+
+    @Override
+    public Node visitLogicalExpr(Expr.Logical expr) {
+        Node left = compile(expr.left);
+        Node right = compile(expr.right);
+        if (expr.operator.type == TokenType.OR) {
+            return new Node.Or(left, right);
+        }
+        return new Node.And(left, right);
+    }
+
+    @Override
+    public Node visitTahiniListExpr(Expr.TahiniList expr) {
+        return new Node.ListLiteral(compileAll(expr.elements));
+    }
+
+    @Override
+    public Node visitTahiniMapExpr(Expr.TahiniMap expr) {
+        return new Node.Interpreted(expr);
+    }
+}
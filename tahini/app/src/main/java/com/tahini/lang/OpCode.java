@@ -0,0 +1,81 @@
+package com.tahini.lang;
+
+/**
+ * Instruction set of the bytecode VM. Operands follow the opcode byte and are
+ * either one byte (u8) or two bytes big-endian (u16), as noted per opcode.
+ */
+final class OpCode {
+
+    private OpCode() {
+    }
+
+    // Constants and stack.
+    static final byte CONSTANT = 0;          // u16 constant
+    static final byte NIL = 1;
+    static final byte TRUE = 2;
+    static final byte FALSE = 3;
+    static final byte POP = 4;
+
+    // Variables.
+    static final byte GET_LOCAL = 5;         // u8 depth, u16 slot, u16 name token
+    static final byte SET_LOCAL = 6;         // u8 depth, u16 slot, u16 name token
+    static final byte DEFINE_LOCAL = 7;      // u16 slot
+    static final byte GET_NAME = 8;          // u16 name token
+    static final byte SET_NAME = 9;          // u16 name token
+    static final byte DEFINE_NAME = 10;      // u16 name token
+    static final byte GET_NAMESPACED = 11;   // u16 name parts
+    static final byte STORE_LOCAL = 52;      // like SET_LOCAL, but pops the value
+    static final byte STORE_NAME = 53;       // like SET_NAME, but pops the value
+
+    // Operators, each carrying its operator token for error reporting.
+    static final byte ADD = 12;              // u16 operator token
+    static final byte SUBTRACT = 13;         // u16 operator token
+    static final byte MULTIPLY = 14;         // u16 operator token
+    static final byte DIVIDE = 15;           // u16 operator token
+    static final byte MODULO = 16;           // u16 operator token
+    static final byte GREATER = 17;          // u16 operator token
+    static final byte GREATER_EQUAL = 18;    // u16 operator token
+    static final byte LESS = 19;             // u16 operator token
+    static final byte LESS_EQUAL = 20;       // u16 operator token
+    static final byte EQUAL = 21;
+    static final byte NOT_EQUAL = 22;
+    static final byte NEGATE = 23;           // u16 operator token
+    static final byte NOT = 24;
+
+    // Control flow.
+    static final byte JUMP = 26;             // u16 forward offset
+    static final byte JUMP_IF_FALSE = 27;    // u16 forward offset, pops the condition
+    static final byte JUMP_IF_FALSE_KEEP = 28; // u16 forward offset
+    static final byte JUMP_IF_TRUE_KEEP = 29; // u16 forward offset
+    static final byte LOOP = 30;             // u16 backward offset
+
+    // Calls and functions.
+    static final byte CALL = 31;             // u8 argument count, u16 call expression
+    static final byte GET_CALLEE = 32;       // u16 call expression, looked up through its inline cache
+    static final byte TAIL_CALL = 25;        // like CALL, for `return f(...)`; followed by RETURN
+    static final byte FUNCTION = 33;         // u16 compiled function
+    static final byte RETURN = 34;
+    static final byte FINISH = 35;
+    static final byte CHECK_PRECONDITION = 36;
+    static final byte CHECK_POSTCONDITION = 37;
+    static final byte SAMPLE_CALL = 54;      // u16 offset past the preconditions, taken if this call goes unchecked or was discharged
+
+    // Collections.
+    static final byte LIST = 38;             // u16 element count
+    static final byte MAP = 39;              // u16 entry count
+    static final byte INDEX = 40;            // u16 bracket token
+    static final byte SLICE = 41;            // u16 bracket token
+
+    // Statements.
+    static final byte PRINT = 42;
+    static final byte PUSH_SCOPE = 43;       // u16 slot names (may be nil)
+    static final byte POP_SCOPE = 44;
+    static final byte CONTRACT_FAILED = 45;  // u16 contract statement
+    static final byte SAMPLE_CONTRACT = 55;  // u16 contract statement, u16 offset past it, taken if unchecked
+    static final byte IMPORT = 46;           // u16 import statement
+    static final byte END_MODULE = 47;
+    static final byte TEST_BEGIN = 48;       // u16 test statement, u16 offset to the handler
+    static final byte TEST_END = 49;
+    static final byte POP_HANDLER = 50;
+    static final byte END = 51;
+}
@@ -0,0 +1,718 @@
+package com.tahini.lang;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rewrites the parsed AST before the Resolver sees it. Operations on
+ * literals are folded, branches with a literal condition are pruned, and
+ * blocks that declare nothing are spliced into the enclosing statement list
+ * so they need no Environment at runtime.
+ *
+ * Folding goes through the Interpreter's own operators, so a folded result
+ * is exactly what evaluating it would give. An operation that fails, like a
+ * division by zero, is left alone to fail at runtime on its own line.
+ *
+ * Calls to one-line larder wrappers like `collections::keys(m)`, whose body
+ * only passes its parameters on to a native such as `_keys`, are replaced by
+ * the native call itself. The inlined call remembers the wrapper's frame, so
+ * a RuntimeError is traced as if the wrapper had been called.
+ *
+ * Loop invariants are hoisted into a variable declared just before the
+ * loop: `len(v)` in a loop condition when nothing the loop runs can assign
+ * v, and lookups like `math::floor` of names a larder module never rebinds.
+ * With --verbose each hoisted expression is reported.
+ *
+ * With --contracts=off, pre- and postconditions and contract statements are
+ * dropped here, so no engine has anything left to check. Otherwise the
+ * Discharger marks the contracts it proves hold, see there.
+ */
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+
+    private final Interpreter interpreter;
+
+    // the whole program being optimized, scanned before anything is rewritten
+    private Effects program;
+    // what it proved, kept for function bodies parsed later, see LazyBody
+    private Discharger discharger;
+
+    // namespaces bound to a larder module, by the only import of their name
+    private final Map<String, String> larderNamespaces = new HashMap<>();
+    // what each larder module declares, read once it is used
+    private final Map<String, LarderModule> modules = new HashMap<>();
+    // the larder namespaces known where each function with a skipped body is declared
+    private final Map<Stmt.Function, Map<String, String>> pendingNamespaces = new IdentityHashMap<>();
+    // variables holding hoisted invariants, by the expressions they replace
+    private final Map<Expr, Token> hoistedCalls = new IdentityHashMap<>();
+    private final Map<String, Token> hoistedLookups = new HashMap<>();
+    // their declarations, which need no scope of their own
+    private final Map<Stmt, Boolean> hoistedVars = new IdentityHashMap<>();
+    private int hoistedCount = 0;
+
+    Optimizer(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    // A larder function that returns what one native call on its parameters,
+    // in order, returns. Inlining it saves a Tahini call per use.
+    private static final class Wrapper {
+
+        final TahiniFunction function;
+        final Expr.Call call;
+        final TahiniCallable target;
+
+        Wrapper(Stmt.Function declaration, Expr.Call call, TahiniCallable target) {
+            // only ever shown in traces
+            this.function = new TahiniFunction(declaration, null);
+            this.call = call;
+            this.target = target;
+        }
+
+        Expr.Call inline(Token site, List<Expr> arguments) {
+            List<Expr> inlined = new ArrayList<>(call.arguments.size());
+            int next = 0;
+            for (Expr argument : call.arguments) {
+                inlined.add(argument instanceof Expr.Literal ? argument : arguments.get(next++));
+            }
+            Expr.Call result = new Expr.Call(new Expr.Literal(target), call.paren, inlined);
+            result.inlined = new CallFrame(function, site.line, site.filename);
+            return result;
+        }
+    }
+
+    // The wrappers of a larder module, and the names it declares once and
+    // never assigns, which keep their value after the import, with the
+    // functions among them.
+    private static final class LarderModule {
+
+        final Map<String, Wrapper> wrappers = new HashMap<>();
+        final Set<String> constants = new HashSet<>();
+        final Map<String, Stmt.Function> functions = new HashMap<>();
+    }
+
+    // A loop invariant and the variable it is computed into.
+    private static final class Invariant {
+
+        final Stmt.Var declaration;
+        final Token at;
+        final String text;
+
+        Invariant(Token name, Expr value, Token at, String text) {
+            this.declaration = new Stmt.Var(name, value);
+            this.at = at;
+            this.text = text;
+        }
+    }
+
+    List<Stmt> optimize(List<Stmt> statements) {
+        return optimize(statements, false);
+    }
+
+    // A module scooped without a name runs in the importer's scope, which
+    // may declare, redefine or assign any name the module uses, natives
+    // and the module's own functions included, as an opaque import would.
+    List<Stmt> optimize(List<Stmt> statements, boolean flat) {
+        program = new Effects();
+        program.scan(statements);
+        program.opaqueImport |= flat;
+
+        List<Stmt> result = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) {
+            add(result, optimize(statement));
+            // calls before the import still fail, so it only counts from here
+            if (!program.opaqueImport && statement instanceof Stmt.Import scoop && scoop.name != null
+                    && program.imports.get(scoop.name.lexeme) == 1
+                    && ((String) scoop.path.literal).startsWith("larder/")) {
+                larderNamespaces.put(scoop.name.lexeme, (String) scoop.path.literal);
+            }
+        }
+        // earlier REPL input could rebind any function called
+        if (Contracts.mode != Contracts.Mode.OFF && !interpreter.repl) {
+            discharger = new Discharger(this, program);
+            discharger.discharge(result);
+        }
+        return result;
+    }
+
+    // Optimizes the body of a function the Parser skipped, now it is
+    // parsed, as it would have been with the rest of the program.
+    void optimizeParsed(Stmt.Function function, List<Stmt> body) {
+        Map<String, String> namespaces = new HashMap<>(larderNamespaces);
+        larderNamespaces.clear();
+        larderNamespaces.putAll(pendingNamespaces.remove(function));
+        function.body.addAll(optimizeBlock(body));
+        larderNamespaces.clear();
+        larderNamespaces.putAll(namespaces);
+        if (discharger != null) {
+            discharger.function(function);
+        }
+    }
+
+    private List<Stmt> optimizeBlock(List<Stmt> statements) {
+        List<Stmt> result = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) {
+            add(result, optimize(statement));
+        }
+        return result;
+    }
+
+    private void add(List<Stmt> statements, Stmt optimized) {
+        if (optimized instanceof Stmt.Block block && !declaresNames(block.statements)) {
+            statements.addAll(block.statements);
+        } else if (optimized != null) {
+            statements.add(optimized);
+        }
+    }
+
+
+    // True when the name can only mean the native of that name: the program
+    // never declares or assigns it, and has no import that could.
+    boolean isNative(Token name) {
+        return !program.opaqueImport && !program.declared.containsKey(name.lexeme)
+                && !program.assigned.contains(name.lexeme) && StandardLibrary.BUILTINS.rootBinding(name) != null;
+    }
+
+    // The larder module `ns::name` refers to, if ns is a larder namespace.
+    private LarderModule moduleOf(Expr expr) {
+        if (!(expr instanceof Expr.NamespacedVariable variable) || variable.nameParts.size() != 2) {
+            return null;
+        }
+        String module = larderNamespaces.get(variable.nameParts.get(0).lexeme);
+        return module != null ? modules.computeIfAbsent(module, this::readModule) : null;
+    }
+
+    // The function `ns::name` always refers to, if ns is a larder namespace.
+    Stmt.Function larderFunction(Expr callee) {
+        LarderModule module = moduleOf(callee);
+        if (module == null) {
+            return null;
+        }
+        return module.functions.get(((Expr.NamespacedVariable) callee).nameParts.get(1).lexeme);
+    }
+
+    // The wrapper `ns::name` calls, if ns is a larder namespace.
+    private Wrapper wrapperAt(Expr callee) {
+        LarderModule module = moduleOf(callee);
+        if (module == null) {
+            return null;
+        }
+        return module.wrappers.get(((Expr.NamespacedVariable) callee).nameParts.get(1).lexeme);
+    }
+
+    private LarderModule readModule(String module) {
+        LarderModule result = new LarderModule();
+        String file = Interpreter.larderFile(module);
+        List<Stmt> statements;
+        try {
+            statements = ModuleCache.parse(file, file, interpreter.larderSource(file, null), true);
+        } catch (IOException | RuntimeError error) {
+            return result;
+        }
+
+        // a name is only relied on if nothing in the module can rebind it
+        Set<String> declared = new HashSet<>();
+        Set<String> redeclared = new HashSet<>();
+        List<Stmt.Function> functions = new ArrayList<>();
+        for (Stmt statement : statements) {
+            switch (statement) {
+                case Stmt.Function function -> {
+                    functions.add(function);
+                    if (!declared.add(function.name.lexeme)) {
+                        redeclared.add(function.name.lexeme);
+                    }
+                }
+                case Stmt.Var var -> {
+                    if (!declared.add(var.name.lexeme)) {
+                        redeclared.add(var.name.lexeme);
+                    }
+                }
+                case Stmt.Import scoop when scoop.name == null -> {
+                    return result;
+                }
+                default -> {
+                }
+            }
+        }
+        // and no assignment anywhere in it, to a local or not, uses its name
+        Effects effects = new Effects();
+        effects.scan(statements);
+        redeclared.addAll(effects.assigned);
+
+        for (String name : declared) {
+            if (!redeclared.contains(name)) {
+                result.constants.add(name);
+            }
+        }
+        for (Stmt.Function function : functions) {
+            if (result.constants.contains(function.name.lexeme)) {
+                result.functions.put(function.name.lexeme, function);
+            }
+            Wrapper wrapper = wrapper(function, declared);
+            if (wrapper != null && result.constants.contains(function.name.lexeme)) {
+                result.wrappers.put(function.name.lexeme, wrapper);
+            }
+        }
+        return result;
+    }
+
+    private Wrapper wrapper(Stmt.Function function, Set<String> declared) {
+        boolean contracted = !function.preconditions.isEmpty() || !function.postconditions.isEmpty();
+        if (contracted && Contracts.mode != Contracts.Mode.OFF) {
+            return null;
+        }
+        Expr.Call call = returnedCall(function.body);
+        if (call == null || !(call.callee instanceof Expr.Variable callee)
+                || declared.contains(callee.name.lexeme)
+                || function.params.stream().anyMatch(param -> param.lexeme.equals(callee.name.lexeme))) {
+            return null;
+        }
+
+        Environment.Binding binding = StandardLibrary.BUILTINS.rootBinding(callee.name);
+        if (binding == null || !(binding.value instanceof TahiniCallable target)
+                || target.arity() != call.arguments.size()) {
+            return null;
+        }
+
+        // every parameter is passed on exactly once, in order, so the
+        // arguments are still evaluated once each and left to right
+        int next = 0;
+        for (Expr argument : call.arguments) {
+            if (argument instanceof Expr.Variable variable && next < function.params.size()
+                    && variable.name.lexeme.equals(function.params.get(next).lexeme)) {
+                next++;
+            } else if (!(argument instanceof Expr.Literal)) {
+                return null;
+            }
+        }
+        return next == function.params.size() ? new Wrapper(function, call, target) : null;
+    }
+
+    // The call a body made of `return f(...);` or `var x = f(...); return x;` returns.
+    private static Expr.Call returnedCall(List<Stmt> body) {
+        if (body.size() == 1 && body.get(0) instanceof Stmt.Return ret && ret.value instanceof Expr.Call call) {
+            return call;
+        }
+        if (body.size() == 2 && body.get(0) instanceof Stmt.Var var && var.initializer instanceof Expr.Call call
+                && body.get(1) instanceof Stmt.Return ret && ret.value instanceof Expr.Variable variable
+                && variable.name.lexeme.equals(var.name.lexeme)) {
+            return call;
+        }
+        return null;
+    }
+
+    // Picks the invariants of a loop and registers the variables that
+    // replace them while the loop is rewritten.
+    private List<Invariant> hoist(Stmt.While loop) {
+        // earlier REPL input is not part of the program scanned
+        if (interpreter.repl || program == null) {
+            return List.of();
+        }
+        Effects effects = new Effects();
+        effects.scan(loop.condition);
+        effects.scan(loop.body);
+
+        List<Invariant> invariants = new ArrayList<>();
+        Effects condition = new Effects();
+        condition.scan(loop.condition);
+        // otherwise evaluating len(v) first could reorder what the condition does
+        if (condition.calls.stream().allMatch(call -> isLength(call) || isNativeCall(call))) {
+            List<Expr.Call> lengths = new ArrayList<>();
+            testedLengths(loop.condition, lengths);
+            Map<String, Token> names = new HashMap<>();
+            for (Expr.Call call : lengths) {
+                Token variable = ((Expr.Variable) call.arguments.get(0)).name;
+                if (!keepsValue(variable.lexeme, effects)) {
+                    continue;
+                }
+                String text = "len(" + variable.lexeme + ")";
+                Token name = names.get(text);
+                if (name == null) {
+                    name = hoistedName(call.paren);
+                    names.put(text, name);
+                    invariants.add(new Invariant(name, new Expr.Call(call.callee, call.paren, call.arguments),
+                            call.paren, text));
+                }
+                hoistedCalls.put(call, name);
+            }
+        }
+
+        List<Expr.NamespacedVariable> lookups = new ArrayList<>(effects.lookups);
+        for (Expr.Call call : effects.calls) {
+            Wrapper wrapper = wrapperAt(call.callee);
+            if (call.callee instanceof Expr.NamespacedVariable callee
+                    && (wrapper == null || wrapper.function.arity() != call.arguments.size())) {
+                lookups.add(callee);
+            }
+        }
+        for (Expr.NamespacedVariable lookup : lookups) {
+            String text = lookup.nameParts.get(0).lexeme + "::" + lookup.nameParts.get(1).lexeme;
+            LarderModule module = moduleOf(lookup);
+            if (module != null && module.constants.contains(lookup.nameParts.get(1).lexeme)
+                    && !hoistedLookups.containsKey(text)) {
+                Token name = hoistedName(lookup.nameParts.get(0));
+                hoistedLookups.put(text, name);
+                invariants.add(new Invariant(name, lookup, lookup.nameParts.get(0), text));
+            }
+        }
+
+        for (Invariant invariant : invariants) {
+            hoistedVars.put(invariant.declaration, true);
+        }
+        return invariants;
+    }
+
+    private Token hoistedName(Token at) {
+        // not a valid identifier, so it cannot clash with a name in the program
+        return new Token(TokenType.IDENTIFIER, "$" + hoistedCount++, null, at.line, at.filename);
+    }
+
+    // Calls `len(v)` the condition makes on every test: not on the right of
+    // an `and` or `or`, nor in a branch of a ternary.
+    private void testedLengths(Expr expr, List<Expr.Call> found) {
+        switch (expr) {
+            case Expr.Call call when isLength(call) ->
+                found.add(call);
+            case Expr.Binary e -> {
+                testedLengths(e.left, found);
+                testedLengths(e.right, found);
+            }
+            case Expr.Unary e ->
+                testedLengths(e.right, found);
+            case Expr.Grouping e ->
+                testedLengths(e.expression, found);
+            case Expr.Logical e ->
+                testedLengths(e.left, found);
+            case Expr.Ternary e ->
+                testedLengths(e.condition, found);
+            default -> {
+            }
+        }
+    }
+
+    private boolean isLength(Expr.Call call) {
+        return call.callee instanceof Expr.Variable callee && callee.name.lexeme.equals("len")
+                && isNative(callee.name) && call.arguments.size() == 1
+                && call.arguments.get(0) instanceof Expr.Variable;
+    }
+
+    // Natives cannot assign the program's variables, and neither can larder
+    // functions unless they are handed a function to call back. Other
+    // modules may call anything.
+    private boolean isNativeCall(Expr.Call call) {
+        if (call.callee instanceof Expr.NamespacedVariable) {
+            return moduleOf(call.callee) != null && call.arguments.stream().noneMatch(Optimizer::mayBeCallable);
+        }
+        return call.callee instanceof Expr.Literal
+                || call.callee instanceof Expr.Variable callee && isNative(callee.name);
+    }
+
+    // Whether an argument may be, or hold, a function. Operators other than
+    // `+` and the logical ones only ever give numbers, strings and booleans.
+    private static boolean mayBeCallable(Expr expr) {
+        return switch (expr) {
+            case Expr.Literal e ->
+                e.value instanceof TahiniCallable;
+            case Expr.Grouping e ->
+                mayBeCallable(e.expression);
+            case Expr.Unary e ->
+                false;
+            case Expr.Binary e ->
+                e.operator.type == TokenType.PLUS && (mayBeCallable(e.left) || mayBeCallable(e.right));
+            case Expr.Logical e ->
+                mayBeCallable(e.left) || mayBeCallable(e.right);
+            case Expr.Ternary e ->
+                mayBeCallable(e.left) || mayBeCallable(e.right);
+            case Expr.TahiniList e ->
+                e.elements.stream().anyMatch(Optimizer::mayBeCallable);
+            case Expr.TahiniMap e ->
+                e.keys.stream().anyMatch(Optimizer::mayBeCallable) || e.values.stream().anyMatch(Optimizer::mayBeCallable);
+            default ->
+                true;
+        };
+    }
+
+    // Whether a variable has the same value on every test of a loop: the
+    // loop does not assign it, and neither does anything it calls. Behind an
+    // opaque import any function the program does not see may assign it.
+    private boolean keepsValue(String name, Effects loop) {
+        if (loop.assigned.contains(name)) {
+            return false;
+        }
+        return (!program.opaqueImport && !program.assignedInFunctions.contains(name))
+                || loop.calls.stream().allMatch(this::isNativeCall);
+    }
+
+    private void report(List<Invariant> invariants) {
+        if (!Tahini.verbose) {
+            return;
+        }
+        for (Invariant invariant : invariants) {
+            System.err.println("[file " + invariant.at.filename + "][line " + invariant.at.line
+                    + "] Hoisted " + invariant.text + " out of the loop.");
+        }
+    }
+
+    // null when the statement can never run
+    private Stmt optimize(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    // for places that need a statement, even one that does nothing
+    private Stmt optimizeBody(Stmt stmt) {
+        Stmt optimized = optimize(stmt);
+        return optimized != null ? optimized : new Stmt.Block(new ArrayList<>());
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr != null ? expr.accept(this) : null;
+    }
+
+    private List<Expr> optimizeAll(List<Expr> exprs) {
+        List<Expr> result = new ArrayList<>(exprs.size());
+        for (Expr expr : exprs) {
+            result.add(optimize(expr));
+        }
+        return result;
+    }
+
+    private boolean declaresNames(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Var && !hoistedVars.containsKey(statement) || statement instanceof Stmt.Function
+                    || statement instanceof Stmt.Import) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isEmpty(Stmt stmt) {
+        return stmt == null || stmt instanceof Stmt.Block block && block.statements.isEmpty();
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        return new Stmt.Expression(optimize(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        Stmt.Function function;
+        if (Contracts.mode == Contracts.Mode.OFF) {
+            function = new Stmt.Function(stmt.name, stmt.params, optimizeBlock(stmt.body),
+                    List.of(), List.of(), stmt.premsg, stmt.postmsg, stmt.unparsed);
+        } else {
+            function = new Stmt.Function(stmt.name, stmt.params, optimizeBlock(stmt.body),
+                    optimizeAll(stmt.preconditions), optimizeAll(stmt.postconditions), stmt.premsg, stmt.postmsg,
+                    stmt.unparsed);
+        }
+        if (stmt.unparsed != null) {
+            function.pending = this;
+            pendingNamespaces.put(function, Map.copyOf(larderNamespaces));
+        }
+        return function;
+    }
+
+    @Override
+    public Stmt visitTestStmt(Stmt.Test stmt) {
+        return new Stmt.Test(stmt.name, optimizeBody(stmt.body));
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        return new Stmt.Print(optimize(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Expr.Literal literal) {
+            if (interpreter.isTruthy(literal.value)) {
+                return optimize(stmt.thenBranch);
+            }
+            return stmt.elseBranch != null ? optimize(stmt.elseBranch) : null;
+        }
+
+        Stmt elseBranch = stmt.elseBranch != null ? optimize(stmt.elseBranch) : null;
+        return new Stmt.If(condition, optimizeBody(stmt.thenBranch), isEmpty(elseBranch) ? null : elseBranch);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        return new Stmt.Var(stmt.name, optimize(stmt.initializer));
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        return new Stmt.Block(optimizeBlock(stmt.statements));
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        List<Invariant> invariants = hoist(stmt);
+        try {
+            Expr condition = optimize(stmt.condition);
+            if (condition instanceof Expr.Literal literal && !interpreter.isTruthy(literal.value)) {
+                return null;
+            }
+            Stmt.While loop = new Stmt.While(condition, optimizeBody(stmt.body));
+            if (invariants.isEmpty()) {
+                return loop;
+            }
+
+            report(invariants);
+            List<Stmt> statements = new ArrayList<>();
+            for (Invariant invariant : invariants) {
+                statements.add(invariant.declaration);
+            }
+            statements.add(loop);
+            return new Stmt.Block(statements);
+        } finally {
+            for (Invariant invariant : invariants) {
+                hoistedCalls.values().removeIf(name -> name == invariant.declaration.name);
+                hoistedLookups.values().remove(invariant.declaration.name);
+            }
+        }
+    }
+
+    @Override
+    public Stmt visitBreakStmt(Stmt.Break stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        return new Stmt.Return(stmt.keyword, optimize(stmt.value));
+    }
+
+    @Override
+    public Stmt visitContractStmt(Stmt.Contract stmt) {
+        if (Contracts.mode == Contracts.Mode.OFF) {
+            return null;
+        }
+        return new Stmt.Contract(stmt.type, optimizeAll(stmt.conditions), stmt.msg);
+    }
+
+    @Override
+    public Stmt visitImportStmt(Stmt.Import stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        return new Expr.Assign(expr.name, optimize(expr.value));
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        if (left instanceof Expr.Literal a && right instanceof Expr.Literal b) {
+            try {
+                return new Expr.Literal(TahiniString.flatten(interpreter.binaryOp(expr.operator, a.value, b.value)));
+            } catch (RuntimeError error) {
+                // left for the runtime to report
+            }
+        }
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Token hoisted = hoistedCalls.get(expr);
+        if (hoisted != null) {
+            return new Expr.Variable(hoisted);
+        }
+
+        List<Expr> arguments = optimizeAll(expr.arguments);
+        Wrapper wrapper = wrapperAt(expr.callee);
+        if (wrapper != null && wrapper.function.arity() == arguments.size()) {
+            return wrapper.inline(expr.paren, arguments);
+        }
+        return new Expr.Call(optimize(expr.callee), expr.paren, arguments);
+    }
+
+    @Override
+    public Expr visitListAccessExpr(Expr.ListAccess expr) {
+        return new Expr.ListAccess(optimize(expr.list), expr.paren, optimize(expr.index));
+    }
+
+    @Override
+    public Expr visitListSliceExpr(Expr.ListSlice expr) {
+        return new Expr.ListSlice(optimize(expr.list), expr.paren, optimize(expr.start), optimize(expr.end));
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+        if (right instanceof Expr.Literal literal) {
+            try {
+                return new Expr.Literal(interpreter.unaryOp(expr.operator, literal.value));
+            } catch (RuntimeError error) {
+                // left for the runtime to report
+            }
+        }
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitTernaryExpr(Expr.Ternary expr) {
+        Expr condition = optimize(expr.condition);
+        if (condition instanceof Expr.Literal literal) {
+            return optimize(interpreter.isTruthy(literal.value) ? expr.left : expr.right);
+        }
+        return new Expr.Ternary(condition, optimize(expr.left), optimize(expr.right));
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitNamespacedVariableExpr(Expr.NamespacedVariable expr) {
+        if (expr.nameParts.size() == 2) {
+            Token hoisted = hoistedLookups.get(expr.nameParts.get(0).lexeme + "::" + expr.nameParts.get(1).lexeme);
+            if (hoisted != null) {
+                return new Expr.Variable(hoisted);
+            }
+        }
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        if (left instanceof Expr.Literal literal) {
+            // `or` keeps a truthy left operand and `and` a falsy one
+            boolean keepsLeft = interpreter.isTruthy(literal.value) == (expr.operator.type == TokenType.OR);
+            return keepsLeft ? left : optimize(expr.right);
+        }
+        return new Expr.Logical(left, expr.operator, optimize(expr.right));
+    }
+
+    @Override
+    public Expr visitTahiniListExpr(Expr.TahiniList expr) {
+        return new Expr.TahiniList(optimizeAll(expr.elements));
+    }
+
+    @Override
+    public Expr visitTahiniMapExpr(Expr.TahiniMap expr) {
+        return new Expr.TahiniMap(optimizeAll(expr.keys), optimizeAll(expr.values));
+    }
+}
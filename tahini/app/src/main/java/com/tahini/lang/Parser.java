@@ -12,12 +12,21 @@ class Parser {
     private int current = 0;
     private int loopLevel = 0;
     private int functionLevel = 0;
+    private int blockLevel = 0;
+    private boolean hadError = false;
 
     final boolean testMode;
+    // skip the bodies of top-level functions, see LazyBody
+    private final boolean lazy;
 
     Parser(List<Token> tokens, boolean testMode) {
+        this(tokens, testMode, false);
+    }
+
+    Parser(List<Token> tokens, boolean testMode, boolean lazy) {
         this.tokens = tokens;
         this.testMode = testMode;
+        this.lazy = lazy;
     }
 
     List<Stmt> parse() {
@@ -32,6 +41,20 @@ class Parser {
         return statements;
     }
 
+    // The body of a function a lazy Parser skipped, from the tokens after its
+    // '{', or null if it has a syntax error, which is reported.
+    List<Stmt> functionBody() {
+        beginFunction();
+        try {
+            List<Stmt> body = block();
+            return hadError ? null : body;
+        } catch (ParseError error) {
+            return null;
+        } finally {
+            endFunction();
+        }
+    }
+
     private Stmt declaration() {
         try {
             if (match(TokenType.VAR)) {
@@ -209,14 +232,41 @@ class Parser {
 
     private List<Stmt> block() {
         List<Stmt> statements = new ArrayList<>();
+        blockLevel++;
         while (!check(TokenType.RIGHT_BRACE) && !isAtEnd()) {
-            statements.add(declaration());
+            Stmt next = declaration();
+            if (next != null) {
+                statements.add(next);
+            }
         }
+        blockLevel--;
 
         consume(TokenType.RIGHT_BRACE, "Expect '}' after block.");
         return statements;
     }
 
+    // The tokens of a function body up to its matching '}', which is
+    // consumed, followed by an end of file for the Parser that parses them.
+    private List<Token> skipBlock() {
+        int start = current;
+        int depth = 1;
+        while (depth > 0) {
+            if (isAtEnd()) {
+                throw error(peek(), "Expect '}' after block.");
+            }
+            if (peek().type == TokenType.LEFT_BRACE) {
+                depth++;
+            } else if (peek().type == TokenType.RIGHT_BRACE) {
+                depth--;
+            }
+            advance();
+        }
+        List<Token> body = new ArrayList<>(tokens.subList(start, current));
+        Token end = previous();
+        body.add(new Token(TokenType.EOF, "", null, end.line, end.filename));
+        return body;
+    }
+
     private Stmt printStatement() {
         Expr value = expression();
         consume(TokenType.SEMICOLON, "Expect ';' after value.");
@@ -303,9 +353,14 @@ class Parser {
         }
 
         consume(TokenType.LEFT_BRACE, "Expect '{' before function body.");
+        if (lazy && blockLevel == 0) {
+            List<Token> unparsed = skipBlock();
+            endFunction();
+            return new Stmt.Function(name, parameters, new ArrayList<>(), preconditions, postconditions, premsg, postmsg, unparsed);
+        }
         List<Stmt> body = block();
         endFunction();
-        return new Stmt.Function(name, parameters, body, preconditions, postconditions, premsg, postmsg);
+        return new Stmt.Function(name, parameters, body, preconditions, postconditions, premsg, postmsg, null);
     }
 
     private Stmt assertionStatement() {
@@ -432,6 +487,7 @@ class Parser {
 
     private ParseError error(Token token, String message) {
         Tahini.error(token, message);
+        hadError = true;
         return new ParseError();
     }
 
@@ -0,0 +1,50 @@
+package com.tahini.lang;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Parses every larder module into the .tahc file AstCache.loadLarder reads
+ * at runtime, so importing the larder from the jar scans and parses nothing.
+ * Run by the precompileLarder task of the build.
+ */
+final class PrecompileLarder {
+
+    private PrecompileLarder() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: precompile_larder <larder directory> <output directory>");
+            System.exit(64);
+        }
+        Path output = Paths.get(args[1]);
+        Files.createDirectories(output);
+
+        try (DirectoryStream<Path> modules = Files.newDirectoryStream(Paths.get(args[0]), "*.tah")) {
+            for (Path module : modules) {
+                String name = module.getFileName().toString();
+                String resource = "/stdlib/" + name;
+                String source;
+                try (InputStream stream = Files.newInputStream(module)) {
+                    source = Interpreter.larderText(stream);
+                }
+
+                List<Stmt> statements = new Parser(new Scanner(source, resource).scanTokens(), false).parse();
+                if (Tahini.hadError) {
+                    System.exit(65);
+                }
+                try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(output.resolve(name + "c")))) {
+                    AstCache.write(stream, resource, resource, source, false, false, statements);
+                }
+            }
+        }
+    }
+}
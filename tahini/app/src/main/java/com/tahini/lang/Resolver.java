@@ -0,0 +1,347 @@
+package com.tahini.lang;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Static pass between parsing and interpretation that lays out the locals of
+ * every block and function body into slots, and annotates each variable
+ * access with the (depth, slot) pair where the value will live at runtime.
+ *
+ * Globals and namespace members stay name-based. Functions run with the
+ * environment they were declared in as parent, so a function body resolves
+ * through the scopes that enclose its declaration.
+ *
+ * Calls whose callee is a global or namespaced name are marked cacheable
+ * when no enclosing scope declares that name, even after the call, so the
+ * engines can keep an InlineCache on them.
+ */
+class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+    private static class Scope {
+
+        // a flat scoop defines names at runtime, so the scope stays name-based
+        final boolean dynamic;
+        final List<String> names = new ArrayList<>();
+        final Map<String, Integer> slots = new HashMap<>();
+        // named imports, which put namespaces into this scope at runtime
+        final Set<String> namespaces = new HashSet<>();
+        // cacheable calls inside this scope, checked again once it is complete
+        final List<Expr.Call> calls = new ArrayList<>();
+
+        Scope(boolean dynamic) {
+            this.dynamic = dynamic;
+        }
+
+        int declare(String name) {
+            Integer slot = slots.get(name);
+            if (slot != null) {
+                return slot;
+            }
+            return add(name);
+        }
+
+        int add(String name) {
+            names.add(name);
+            slots.put(name, names.size() - 1);
+            return names.size() - 1;
+        }
+
+        String[] locals() {
+            return dynamic ? null : names.toArray(new String[0]);
+        }
+    }
+
+    private final List<Scope> scopes = new ArrayList<>();
+
+    void resolve(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            resolve(statement);
+        }
+    }
+
+    private void resolve(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void resolve(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void resolveAll(List<Expr> exprs) {
+        for (Expr expr : exprs) {
+            resolve(expr);
+        }
+    }
+
+    private static boolean hasFlatImport(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Import importStmt && importStmt.name == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int declare(Token name) {
+        if (scopes.isEmpty()) {
+            return -1;
+        }
+        Scope scope = scopes.get(scopes.size() - 1);
+        return scope.dynamic ? -1 : scope.declare(name.lexeme);
+    }
+
+    // Returns {depth, slot}, or null when the name has to be looked up at runtime.
+    private int[] resolveLocal(Token name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Scope scope = scopes.get(i);
+            if (scope.dynamic) {
+                return null;
+            }
+            Integer slot = scope.slots.get(name.lexeme);
+            if (slot != null) {
+                return new int[]{scopes.size() - 1 - i, slot};
+            }
+        }
+        return null;
+    }
+
+    // A call stays cacheable only if its callee's name is not declared anywhere
+    // in the scope, since a later declaration would shadow it at runtime.
+    private void endScope() {
+        Scope scope = scopes.remove(scopes.size() - 1);
+        for (Expr.Call call : scope.calls) {
+            boolean shadowed = call.callee instanceof Expr.Variable variable
+                    ? scope.slots.containsKey(variable.name.lexeme)
+                    : scope.namespaces.contains(((Expr.NamespacedVariable) call.callee).nameParts.get(0).lexeme);
+            if (shadowed) {
+                call.cacheable = false;
+            } else if (!scopes.isEmpty()) {
+                scopes.get(scopes.size() - 1).calls.add(call);
+            }
+        }
+    }
+
+    private boolean inDynamicScope() {
+        for (Scope scope : scopes) {
+            if (scope.dynamic) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        Scope scope = new Scope(hasFlatImport(stmt.statements));
+        scopes.add(scope);
+        resolve(stmt.statements);
+        endScope();
+        stmt.locals = scope.locals();
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        stmt.slot = declare(stmt.name);
+
+        Scope scope = new Scope(hasFlatImport(stmt.body));
+        scopes.add(scope);
+        // parameters always get their own slot, in order, so calls can bind by index
+        for (Token param : stmt.params) {
+            scope.add(param.lexeme);
+        }
+        resolveAll(stmt.preconditions);
+        resolve(stmt.body);
+        resolveAll(stmt.postconditions);
+        endScope();
+        stmt.locals = scope.locals();
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null) {
+            resolve(stmt.initializer);
+        }
+        stmt.slot = declare(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitTestStmt(Stmt.Test stmt) {
+        resolve(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.thenBranch);
+        if (stmt.elseBranch != null) {
+            resolve(stmt.elseBranch);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value != null) {
+            resolve(stmt.value);
+        }
+        // the parser only accepts return inside functions, so this is a tail call
+        stmt.tailCall = stmt.value instanceof Expr.Call;
+        return null;
+    }
+
+    @Override
+    public Void visitContractStmt(Stmt.Contract stmt) {
+        resolveAll(stmt.conditions);
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        if (stmt.name != null && !scopes.isEmpty()) {
+            scopes.get(scopes.size() - 1).namespaces.add(stmt.name.lexeme);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        resolve(expr.value);
+        int[] location = resolveLocal(expr.name);
+        if (location != null) {
+            expr.depth = location[0];
+            expr.slot = location[1];
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        int[] location = resolveLocal(expr.name);
+        if (location != null) {
+            expr.depth = location[0];
+            expr.slot = location[1];
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        resolve(expr.callee);
+        resolveAll(expr.arguments);
+
+        boolean named = expr.callee instanceof Expr.Variable variable && variable.depth < 0
+                || expr.callee instanceof Expr.NamespacedVariable;
+        if (named && !inDynamicScope()) {
+            expr.cacheable = true;
+            if (!scopes.isEmpty()) {
+                scopes.get(scopes.size() - 1).calls.add(expr);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitListAccessExpr(Expr.ListAccess expr) {
+        resolve(expr.list);
+        resolve(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitListSliceExpr(Expr.ListSlice expr) {
+        resolve(expr.list);
+        resolve(expr.start);
+        resolve(expr.end);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        resolve(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        resolve(expr.condition);
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitNamespacedVariableExpr(Expr.NamespacedVariable expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitTahiniListExpr(Expr.TahiniList expr) {
+        resolveAll(expr.elements);
+        return null;
+    }
+
+    @Override
+    public Void visitTahiniMapExpr(Expr.TahiniMap expr) {
+        resolveAll(expr.keys);
+        resolveAll(expr.values);
+        return null;
+    }
+}
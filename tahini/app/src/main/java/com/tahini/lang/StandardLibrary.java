@@ -12,10 +12,21 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
 
 class StandardLibrary {
 
-    public static void addStandardFunctions(Environment globalEnv) {
+    // Every native, created once and shared read-only: the globals and each
+    // module namespace enclose this environment instead of holding copies.
+    static final Environment BUILTINS = new Environment();
+
+    static {
+        addStandardFunctions(BUILTINS);
+        addInternalFunctions(BUILTINS);
+    }
+
+    private static void addStandardFunctions(Environment globalEnv) {
         globalEnv.define("input", new InputFunction());
         globalEnv.define("len", new ArrayLengthFunction());
         globalEnv.define("clock", new UnixEpochSecondsFunction());
@@ -23,7 +34,7 @@ class StandardLibrary {
         globalEnv.define("stronum", new StringToNumberFunction());
     }
 
-    public static void addInternalFunctions(Environment globalEnv) {
+    private static void addInternalFunctions(Environment globalEnv) {
         globalEnv.define("_keys", new HashmapKeysFunction());
         globalEnv.define("_values", new HashmapValuesFunction());
         globalEnv.define("_addToDict", new AddToDictionaryFunction());
@@ -32,6 +43,21 @@ class StandardLibrary {
         globalEnv.define("_write", new FileWriteFunction());
         globalEnv.define("_random", new RandomHelperFunction());
         globalEnv.define("_http", new HTTPRestFunction());
+        globalEnv.define("_split", new StringSplitFunction());
+        globalEnv.define("_join", new StringJoinFunction());
+        globalEnv.define("_replace", new StringReplaceFunction());
+        globalEnv.define("_floor", new UnaryMathFunction(Math::floor));
+        globalEnv.define("_ceil", new UnaryMathFunction(Math::ceil));
+        globalEnv.define("_sqrt", new UnaryMathFunction(Math::sqrt));
+        globalEnv.define("_exp", new UnaryMathFunction(StrictMath::exp));
+        globalEnv.define("_log", new UnaryMathFunction(StrictMath::log));
+        globalEnv.define("_sin", new UnaryMathFunction(StrictMath::sin));
+        globalEnv.define("_cos", new UnaryMathFunction(StrictMath::cos));
+        globalEnv.define("_tan", new UnaryMathFunction(StrictMath::tan));
+        globalEnv.define("_pow", new BinaryMathFunction(BinaryMathFunction::pow));
+        globalEnv.define("_round", new BinaryMathFunction(BinaryMathFunction::round));
+        globalEnv.define("_atan2", new BinaryMathFunction(StrictMath::atan2));
+        globalEnv.define("_hypot", new BinaryMathFunction(StrictMath::hypot));
     }
 }
 
@@ -47,12 +73,15 @@ class RemoveFromDictionaryFunction implements TahiniCallable {
         if (args.size() != 2) {
             throw new RuntimeError(null, "Expected 2 arguments but got " + args.size() + ".", null);
         }
-        Object dictArg = args.get(0);
+        return call2(interpreter, args.get(0), args.get(1));
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object dictArg, Object keyArg) {
         if (!(dictArg instanceof Map)) {
             throw new RuntimeError(null, "Expected a hashmap but got " + dictArg + ".", null);
         }
-        Object keyArg = args.get(1);
-        ((Map) dictArg).remove(keyArg);
+        ((Map) dictArg).remove(TahiniString.flatten(keyArg));
         return dictArg;
     }
 
@@ -79,13 +108,15 @@ class AddToDictionaryFunction implements TahiniCallable {
         if (args.size() != 3) {
             throw new RuntimeError(null, "Expected 3 arguments but got " + args.size() + ".", null);
         }
-        Object dictArg = args.get(0);
+        return call3(interpreter, args.get(0), args.get(1), args.get(2));
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object dictArg, Object keyArg, Object valueArg) {
         if (!(dictArg instanceof Map)) {
             throw new RuntimeError(null, "Expected a hashmap but got " + dictArg + ".", null);
         }
-        Object keyArg = args.get(1);
-        Object valueArg = args.get(2);
-        ((Map) dictArg).put(keyArg, valueArg);
+        ((Map) dictArg).put(TahiniString.flatten(keyArg), TahiniString.flatten(valueArg));
         return dictArg;
     }
 
@@ -112,12 +143,16 @@ class StringToNumberFunction implements TahiniCallable {
         if (args.size() != 1) {
             throw new RuntimeError(null, "Expected 1 argument but got " + args.size() + ".", null);
         }
-        Object arg = args.get(0);
-        if (!(arg instanceof String)) {
+        return call1(interpreter, args.get(0));
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object arg) {
+        if (!(arg instanceof CharSequence)) {
             throw new RuntimeError(null, "Expected a string but got " + arg + ".", null);
         }
         try {
-            return Double.valueOf((String) arg);
+            return Double.valueOf(arg.toString());
         } catch (NumberFormatException e) {
             throw new RuntimeError(null, "Invalid number format: " + arg, null);
         }
@@ -146,12 +181,16 @@ class TypeOfFunction implements TahiniCallable {
         if (args.size() != 1) {
             throw new RuntimeError(null, "Expected 1 argument but got " + args.size() + ".", null);
         }
-        Object arg = args.get(0);
+        return call1(interpreter, args.get(0));
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object arg) {
         if (arg == null) {
             return "nil";
         }
         return switch (arg) {
-            case String s ->
+            case CharSequence s ->
                 "string";
             case Double d ->
                 "number";
@@ -192,12 +231,15 @@ class HTTPRestFunction implements TahiniCallable {
         if (args.size() != 2) {
             throw new RuntimeError(null, "Expected 2 arguments but got " + args.size() + ".", null);
         }
-        Object urlarg = args.get(0);
-        if (!(urlarg instanceof String url)) {
+        return call2(interpreter, args.get(0), args.get(1));
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object urlarg, Object methodarg) {
+        if (!(TahiniString.flatten(urlarg) instanceof String url)) {
             throw new RuntimeError(null, "Expected a string url but got " + urlarg + ".", null);
         }
-        Object methodarg = args.get(1);
-        if (!(methodarg.equals("GET"))) {
+        if (!("GET".equals(TahiniString.flatten(methodarg)))) {
             throw new RuntimeError(null, "Expected 'GET' but got " + methodarg + ".", null);
         }
         String response;
@@ -251,6 +293,11 @@ class RandomHelperFunction implements TahiniCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
+        return call0(interpreter);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
         return Math.random();
     }
 
@@ -274,6 +321,11 @@ class UnixEpochSecondsFunction implements TahiniCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
+        return call0(interpreter);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
         return (double) System.currentTimeMillis() / 1000.0;
     }
 
@@ -295,13 +347,15 @@ class FileWriteFunction implements TahiniCallable {
         if (args.size() != 2) {
             throw new RuntimeError(null, "Expected 2 arguments (file path and content) but got " + args.size() + ".", null);
         }
-        Object pathArg = args.get(0);
-        Object contentArg = args.get(1);
+        return call2(interpreter, args.get(0), args.get(1));
+    }
 
-        if (!(pathArg instanceof String path)) {
+    @Override
+    public Object call2(Interpreter interpreter, Object pathArg, Object contentArg) {
+        if (!(TahiniString.flatten(pathArg) instanceof String path)) {
             throw new RuntimeError(null, "Expected a string (file path) but got " + pathArg + ".", null);
         }
-        if (!(contentArg instanceof String content)) {
+        if (!(TahiniString.flatten(contentArg) instanceof String content)) {
             throw new RuntimeError(null, "Expected a string (content) but got " + contentArg + ".", null);
         }
 
@@ -336,9 +390,12 @@ class FileReadFunction implements TahiniCallable {
         if (args.size() != 1) {
             throw new RuntimeError(null, "Expected 1 argument (file path) but got " + args.size() + ".", null);
         }
-        Object arg = args.get(0);
+        return call1(interpreter, args.get(0));
+    }
 
-        if (!(arg instanceof String path)) {
+    @Override
+    public Object call1(Interpreter interpreter, Object arg) {
+        if (!(TahiniString.flatten(arg) instanceof String path)) {
             throw new RuntimeError(null, "Expected a string (file path) but got " + arg + ".", null);
         }
 
@@ -373,11 +430,15 @@ class HashmapValuesFunction implements TahiniCallable {
         if (args.size() != 1) {
             throw new RuntimeError(null, "Expected 1 argument but got " + args.size() + ".", null);
         }
-        Object arg = args.get(0);
+        return call1(interpreter, args.get(0));
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object arg) {
         if (!(arg instanceof Map)) {
             throw new RuntimeError(null, "Expected a hashmap but got " + arg + ".", null);
         }
-        return new ArrayList<>(((Map) arg).values());
+        return TahiniVector.of(((Map) arg).values().toArray());
     }
 
     @Override
@@ -403,11 +464,15 @@ class HashmapKeysFunction implements TahiniCallable {
         if (args.size() != 1) {
             throw new RuntimeError(null, "Expected 1 argument but got " + args.size() + ".", null);
         }
-        Object arg = args.get(0);
+        return call1(interpreter, args.get(0));
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object arg) {
         if (!(arg instanceof Map)) {
             throw new RuntimeError(null, "Expected a hashmap but got " + arg + ".", null);
         }
-        return new ArrayList<>(((Map) arg).keySet());
+        return TahiniVector.of(((Map) arg).keySet().toArray());
     }
 
     @Override
@@ -459,14 +524,18 @@ class ArrayLengthFunction implements TahiniCallable {
         if (args.size() != 1) {
             throw new RuntimeError(null, "Expected 1 argument but got " + args.size() + ".", null);
         }
-        Object arg = args.get(0);
+        return call1(interpreter, args.get(0));
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object arg) {
         if (arg == null) {
             return 0;
         }
         return switch (arg) {
             case List<?> list ->
                 (double) list.size();
-            case String str ->
+            case CharSequence str ->
                 (double) str.length();
             default ->
                 throw new RuntimeError(null, "Expected an array or string but got " + arg + ".", null);
@@ -488,3 +557,249 @@ class ArrayLengthFunction implements TahiniCallable {
         return false;
     }
 }
+
+class StringSplitFunction implements TahiniCallable {
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> args) {
+        if (args.size() != 2) {
+            throw new RuntimeError(null, "Expected 2 arguments but got " + args.size() + ".", null);
+        }
+        return call2(interpreter, args.get(0), args.get(1));
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object stringArg, Object delimiterArg) {
+        if (!(TahiniString.flatten(stringArg) instanceof String string)) {
+            throw new RuntimeError(null, "Expected a string but got " + stringArg + ".", null);
+        }
+        if (!(TahiniString.flatten(delimiterArg) instanceof String delimiter) || delimiter.isEmpty()) {
+            throw new RuntimeError(null, "Expected a non-empty string delimiter but got " + delimiterArg + ".", null);
+        }
+        List<Object> pieces = new ArrayList<>();
+        int start = 0;
+        for (int at = string.indexOf(delimiter); at >= 0; at = string.indexOf(delimiter, start)) {
+            pieces.add(string.substring(start, at));
+            start = at + delimiter.length();
+        }
+        pieces.add(string.substring(start));
+        return TahiniVector.of(pieces.toArray());
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+
+    @Override
+    public int arity() {
+        return 2;
+    }
+
+    @Override
+    public boolean isInternal() {
+        return false;
+    }
+}
+
+class StringJoinFunction implements TahiniCallable {
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> args) {
+        if (args.size() != 2) {
+            throw new RuntimeError(null, "Expected 2 arguments but got " + args.size() + ".", null);
+        }
+        return call2(interpreter, args.get(0), args.get(1));
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object listArg, Object delimiterArg) {
+        List<?> items = switch (listArg) {
+            case List<?> list ->
+                list;
+            case CharSequence str ->
+                str.chars().mapToObj(c -> String.valueOf((char) c)).toList();
+            case null, default ->
+                throw new RuntimeError(null, "Expected an array or string but got " + listArg + ".", null);
+        };
+        String delimiter = interpreter.stringify(delimiterArg);
+        StringBuilder result = new StringBuilder();
+        boolean first = true;
+        for (Object item : items) {
+            if (!first) {
+                result.append(delimiter);
+            }
+            result.append(interpreter.stringify(item));
+            first = false;
+        }
+        return result.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+
+    @Override
+    public int arity() {
+        return 2;
+    }
+
+    @Override
+    public boolean isInternal() {
+        return false;
+    }
+}
+
+class StringReplaceFunction implements TahiniCallable {
+
+    @Override
+    public int arity() {
+        return 3;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> args) {
+        if (args.size() != 3) {
+            throw new RuntimeError(null, "Expected 3 arguments but got " + args.size() + ".", null);
+        }
+        return call3(interpreter, args.get(0), args.get(1), args.get(2));
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object stringArg, Object oldArg, Object newArg) {
+        if (!(TahiniString.flatten(stringArg) instanceof String string)) {
+            throw new RuntimeError(null, "Expected a string but got " + stringArg + ".", null);
+        }
+        if (!(TahiniString.flatten(oldArg) instanceof String old) || old.isEmpty()) {
+            throw new RuntimeError(null, "Expected a non-empty string to replace but got " + oldArg + ".", null);
+        }
+        String replacement = interpreter.stringify(newArg);
+        StringBuilder result = new StringBuilder(string.length());
+        int start = 0;
+        for (int at = string.indexOf(old); at >= 0; at = string.indexOf(old, start)) {
+            result.append(string, start, at).append(replacement);
+            start = at + old.length();
+        }
+        return result.append(string, start, string.length()).toString();
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+
+    @Override
+    public boolean isInternal() {
+        return false;
+    }
+}
+
+// The natives behind larder/math. Transcendental functions use StrictMath,
+// so a program prints the same digits on every JVM.
+class UnaryMathFunction implements TahiniCallable {
+
+    private final DoubleUnaryOperator function;
+
+    UnaryMathFunction(DoubleUnaryOperator function) {
+        this.function = function;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> args) {
+        if (args.size() != 1) {
+            throw new RuntimeError(null, "Expected 1 argument but got " + args.size() + ".", null);
+        }
+        return call1(interpreter, args.get(0));
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object arg) {
+        if (!(arg instanceof Double x)) {
+            throw new RuntimeError(null, "Expected a number but got " + arg + ".", null);
+        }
+        return function.applyAsDouble(x);
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+
+    @Override
+    public int arity() {
+        return 1;
+    }
+
+    @Override
+    public boolean isInternal() {
+        return false;
+    }
+}
+
+class BinaryMathFunction implements TahiniCallable {
+
+    // integer exponents up to this size are raised by repeated squaring
+    private static final int SQUARING_LIMIT = 32;
+
+    private final DoubleBinaryOperator function;
+
+    BinaryMathFunction(DoubleBinaryOperator function) {
+        this.function = function;
+    }
+
+    static double pow(double base, double exponent) {
+        if (exponent != Math.rint(exponent) || Math.abs(exponent) > SQUARING_LIMIT) {
+            return StrictMath.pow(base, exponent);
+        }
+        double result = 1;
+        double square = base;
+        for (int n = (int) Math.abs(exponent); n > 0; n >>= 1) {
+            if ((n & 1) != 0) {
+                result *= square;
+            }
+            square *= square;
+        }
+        return exponent < 0 ? 1 / result : result;
+    }
+
+    // Rounds half up to the given number of decimal places.
+    static double round(double x, double places) {
+        double factor = pow(10, places);
+        return Math.floor(x * factor + 0.5) / factor;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> args) {
+        if (args.size() != 2) {
+            throw new RuntimeError(null, "Expected 2 arguments but got " + args.size() + ".", null);
+        }
+        return call2(interpreter, args.get(0), args.get(1));
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        if (!(a instanceof Double x)) {
+            throw new RuntimeError(null, "Expected a number but got " + a + ".", null);
+        }
+        if (!(b instanceof Double y)) {
+            throw new RuntimeError(null, "Expected a number but got " + b + ".", null);
+        }
+        return function.applyAsDouble(x, y);
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+
+    @Override
+    public int arity() {
+        return 2;
+    }
+
+    @Override
+    public boolean isInternal() {
+        return false;
+    }
+}
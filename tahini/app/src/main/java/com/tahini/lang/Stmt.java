@@ -1,8 +1,13 @@
 package com.tahini.lang;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 abstract class Stmt {
+
+  static final int SCHEMA = -623836167;
+
   interface Visitor<R> {
     R visitExpressionStmt(Expression stmt);
     R visitFunctionStmt(Function stmt);
@@ -27,10 +32,21 @@ abstract class Stmt {
       return visitor.visitExpressionStmt(this);
     }
 
+    @Override
+    Expression copy() {
+      return new Expression(expression == null ? null : expression.copy());
+    }
+
+    @Override
+    void write(AstWriter out) throws IOException {
+      out.writeTag(0);
+      out.writeExpr(expression);
+    }
+
     final Expr expression;
   }
   static class Function extends Stmt {
-    Function(Token name, List<Token> params, List<Stmt> body, List<Expr> preconditions, List<Expr> postconditions, Object premsg, Object postmsg) {
+    Function(Token name, List<Token> params, List<Stmt> body, List<Expr> preconditions, List<Expr> postconditions, Object premsg, Object postmsg, List<Token> unparsed) {
       this.name = name;
       this.params = params;
       this.body = body;
@@ -38,6 +54,7 @@ abstract class Stmt {
       this.postconditions = postconditions;
       this.premsg = premsg;
       this.postmsg = postmsg;
+      this.unparsed = unparsed;
     }
 
     @Override
@@ -45,6 +62,24 @@ abstract class Stmt {
       return visitor.visitFunctionStmt(this);
     }
 
+    @Override
+    Function copy() {
+      return new Function(name, params, Stmt.copyAll(body), Expr.copyAll(preconditions), Expr.copyAll(postconditions), premsg, postmsg, unparsed);
+    }
+
+    @Override
+    void write(AstWriter out) throws IOException {
+      out.writeTag(1);
+      out.writeToken(name);
+      out.writeTokens(params);
+      out.writeStmts(body);
+      out.writeExprs(preconditions);
+      out.writeExprs(postconditions);
+      out.writeObject(premsg);
+      out.writeObject(postmsg);
+      out.writeTokens(unparsed);
+    }
+
     final Token name;
     final List<Token> params;
     final List<Stmt> body;
@@ -52,6 +87,12 @@ abstract class Stmt {
     final List<Expr> postconditions;
     final Object premsg;
     final Object postmsg;
+    final List<Token> unparsed;
+    int slot = -1;
+    String[] locals = null;
+    int runs = 0;
+    Optimizer pending = null;
+    boolean broken = false;
   }
   static class Test extends Stmt {
     Test(Token name, Stmt body) {
@@ -64,6 +105,18 @@ abstract class Stmt {
       return visitor.visitTestStmt(this);
     }
 
+    @Override
+    Test copy() {
+      return new Test(name, body == null ? null : body.copy());
+    }
+
+    @Override
+    void write(AstWriter out) throws IOException {
+      out.writeTag(2);
+      out.writeToken(name);
+      out.writeStmt(body);
+    }
+
     final Token name;
     final Stmt body;
   }
@@ -77,6 +130,17 @@ abstract class Stmt {
       return visitor.visitPrintStmt(this);
     }
 
+    @Override
+    Print copy() {
+      return new Print(expression == null ? null : expression.copy());
+    }
+
+    @Override
+    void write(AstWriter out) throws IOException {
+      out.writeTag(3);
+      out.writeExpr(expression);
+    }
+
     final Expr expression;
   }
   static class If extends Stmt {
@@ -91,6 +155,19 @@ abstract class Stmt {
       return visitor.visitIfStmt(this);
     }
 
+    @Override
+    If copy() {
+      return new If(condition == null ? null : condition.copy(), thenBranch == null ? null : thenBranch.copy(), elseBranch == null ? null : elseBranch.copy());
+    }
+
+    @Override
+    void write(AstWriter out) throws IOException {
+      out.writeTag(4);
+      out.writeExpr(condition);
+      out.writeStmt(thenBranch);
+      out.writeStmt(elseBranch);
+    }
+
     final Expr condition;
     final Stmt thenBranch;
     final Stmt elseBranch;
@@ -106,8 +183,21 @@ abstract class Stmt {
       return visitor.visitVarStmt(this);
     }
 
+    @Override
+    Var copy() {
+      return new Var(name, initializer == null ? null : initializer.copy());
+    }
+
+    @Override
+    void write(AstWriter out) throws IOException {
+      out.writeTag(5);
+      out.writeToken(name);
+      out.writeExpr(initializer);
+    }
+
     final Token name;
     final Expr initializer;
+    int slot = -1;
   }
   static class Block extends Stmt {
     Block(List<Stmt> statements) {
@@ -119,7 +209,19 @@ abstract class Stmt {
       return visitor.visitBlockStmt(this);
     }
 
+    @Override
+    Block copy() {
+      return new Block(Stmt.copyAll(statements));
+    }
+
+    @Override
+    void write(AstWriter out) throws IOException {
+      out.writeTag(6);
+      out.writeStmts(statements);
+    }
+
     final List<Stmt> statements;
+    String[] locals = null;
   }
   static class While extends Stmt {
     While(Expr condition, Stmt body) {
@@ -132,6 +234,18 @@ abstract class Stmt {
       return visitor.visitWhileStmt(this);
     }
 
+    @Override
+    While copy() {
+      return new While(condition == null ? null : condition.copy(), body == null ? null : body.copy());
+    }
+
+    @Override
+    void write(AstWriter out) throws IOException {
+      out.writeTag(7);
+      out.writeExpr(condition);
+      out.writeStmt(body);
+    }
+
     final Expr condition;
     final Stmt body;
   }
@@ -144,6 +258,16 @@ abstract class Stmt {
       return visitor.visitBreakStmt(this);
     }
 
+    @Override
+    Break copy() {
+      return new Break();
+    }
+
+    @Override
+    void write(AstWriter out) throws IOException {
+      out.writeTag(8);
+    }
+
   }
   static class Return extends Stmt {
     Return(Token keyword, Expr value) {
@@ -156,8 +280,21 @@ abstract class Stmt {
       return visitor.visitReturnStmt(this);
     }
 
+    @Override
+    Return copy() {
+      return new Return(keyword, value == null ? null : value.copy());
+    }
+
+    @Override
+    void write(AstWriter out) throws IOException {
+      out.writeTag(9);
+      out.writeToken(keyword);
+      out.writeExpr(value);
+    }
+
     final Token keyword;
     final Expr value;
+    boolean tailCall = false;
   }
   static class Contract extends Stmt {
     Contract(Token type, List<Expr> conditions, Object msg) {
@@ -171,9 +308,24 @@ abstract class Stmt {
       return visitor.visitContractStmt(this);
     }
 
+    @Override
+    Contract copy() {
+      return new Contract(type, Expr.copyAll(conditions), msg);
+    }
+
+    @Override
+    void write(AstWriter out) throws IOException {
+      out.writeTag(10);
+      out.writeToken(type);
+      out.writeExprs(conditions);
+      out.writeObject(msg);
+    }
+
     final Token type;
     final List<Expr> conditions;
     final Object msg;
+    int runs = 0;
+    boolean discharged = false;
   }
   static class Import extends Stmt {
     Import(Token path, Token name) {
@@ -186,9 +338,55 @@ abstract class Stmt {
       return visitor.visitImportStmt(this);
     }
 
+    @Override
+    Import copy() {
+      return new Import(path, name);
+    }
+
+    @Override
+    void write(AstWriter out) throws IOException {
+      out.writeTag(11);
+      out.writeToken(path);
+      out.writeToken(name);
+    }
+
     final Token path;
     final Token name;
   }
 
   abstract <R> R accept(Visitor<R> visitor);
+
+  // A fresh tree without the annotations of later passes.
+  abstract Stmt copy();
+
+  static List<Stmt> copyAll(List<Stmt> nodes) {
+    if (nodes == null) {
+      return null;
+    }
+    List<Stmt> copies = new ArrayList<>(nodes.size());
+    for (Stmt node : nodes) {
+      copies.add(node.copy());
+    }
+    return copies;
+  }
+
+  abstract void write(AstWriter out) throws IOException;
+
+  static Stmt read(AstReader in, int tag) throws IOException {
+    return switch (tag) {
+      case 0 -> new Expression(in.readExpr());
+      case 1 -> new Function(in.readToken(), in.readTokens(), in.readStmts(), in.readExprs(), in.readExprs(), in.readObject(), in.readObject(), in.readTokens());
+      case 2 -> new Test(in.readToken(), in.readStmt());
+      case 3 -> new Print(in.readExpr());
+      case 4 -> new If(in.readExpr(), in.readStmt(), in.readStmt());
+      case 5 -> new Var(in.readToken(), in.readExpr());
+      case 6 -> new Block(in.readStmts());
+      case 7 -> new While(in.readExpr(), in.readStmt());
+      case 8 -> new Break();
+      case 9 -> new Return(in.readToken(), in.readExpr());
+      case 10 -> new Contract(in.readToken(), in.readExprs(), in.readObject());
+      case 11 -> new Import(in.readToken(), in.readToken());
+      default -> throw new IOException("Unknown Stmt node " + tag + ".");
+    };
+  }
 }
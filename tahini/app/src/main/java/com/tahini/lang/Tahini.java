@@ -11,23 +11,62 @@ import java.util.List;
 
 public class Tahini {
 
+    enum Engine {
+        TREE, NODES, VM
+    }
+
     private static Interpreter interpreter;
+    private static Engine engine = Engine.TREE;
+    // memory the VM's frames, or the Java stack of the other engines, may
+    // hold before deep recursion is an error
+    private static long stackBudget = Runtime.getRuntime().maxMemory() / 4;
+    // a longer trace only shows this many calls at each end
+    private static final int TRACE_EDGE = 10;
+    // report what the optimizer did, see --verbose
+    static boolean verbose = false;
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
 
     public static void main(String[] args) {
-        try {
-            if (args.length > 2 || (args.length == 2 && !args[1].equals("--test") && !args[1].equals("--visualize"))) {
-                System.out.println("Usage: jlox [script]");
-                System.exit(64);
-            } else if (args.length == 2 && args[1].equals("--test")) {
-                runFile(args[0], true);
-            } else if (args.length == 2 && args[1].equals("--visualize")) {
-                visualizeAST(args[0]);
-            } else if (args.length == 1) {
-                runFile(args[0], false);
+        String script = null;
+        boolean testMode = false;
+        boolean visualize = false;
+        boolean dumpOptimized = false;
+        for (String arg : args) {
+            if (arg.equals("--test")) {
+                testMode = true;
+                ModuleCache.lazy = false;
+            } else if (arg.equals("--visualize")) {
+                visualize = true;
+            } else if (arg.equals("--dump-optimized")) {
+                dumpOptimized = true;
+            } else if (arg.equals("--verbose")) {
+                verbose = true;
+            } else if (arg.equals("--no-cache")) {
+                AstCache.enabled = false;
+            } else if (arg.startsWith("--engine=")) {
+                engine = parseEngine(arg.substring("--engine=".length()));
+            } else if (arg.startsWith("--contracts=")) {
+                parseContracts(arg.substring("--contracts=".length()));
+            } else if (arg.startsWith("--stack-budget=")) {
+                stackBudget = parseSize(arg.substring("--stack-budget=".length()));
+            } else if (script == null && !arg.startsWith("--")) {
+                script = arg;
             } else {
+                usage();
+            }
+        }
+
+        try {
+            if (script == null) {
+                if (testMode || visualize || dumpOptimized) {
+                    usage();
+                }
                 runPrompt();
+            } else if (visualize || dumpOptimized) {
+                visualizeAST(script, dumpOptimized);
+            } else {
+                runFile(script, testMode);
             }
         } catch (IOException e) {
             System.err.println("Error reading file: " + e.getMessage());
@@ -35,11 +74,78 @@ public class Tahini {
         }
     }
 
+    private static void usage() {
+        System.out.println("Usage: tahini [script] [--test] [--visualize] [--dump-optimized] [--verbose] [--no-cache] [--engine=tree|nodes|vm] [--contracts=off|sample:N|on] [--stack-budget=SIZE]");
+        System.exit(64);
+    }
+
+    private static Engine parseEngine(String name) {
+        for (Engine candidate : Engine.values()) {
+            if (candidate.name().equalsIgnoreCase(name)) {
+                return candidate;
+            }
+        }
+        usage();
+        return Engine.TREE;
+    }
+
+    // off, on, or sample:N for checking one in N.
+    private static void parseContracts(String mode) {
+        if (mode.equals("off")) {
+            Contracts.mode = Contracts.Mode.OFF;
+        } else if (mode.equals("on")) {
+            Contracts.mode = Contracts.Mode.ON;
+        } else if (mode.startsWith("sample:")) {
+            try {
+                Contracts.sampleRate = Integer.parseInt(mode.substring("sample:".length()));
+            } catch (NumberFormatException e) {
+                usage();
+            }
+            if (Contracts.sampleRate < 1) {
+                usage();
+            }
+            Contracts.mode = Contracts.Mode.SAMPLE;
+        } else {
+            usage();
+        }
+    }
+
+    // A byte count with an optional k, m or g suffix, e.g. 512m.
+    private static long parseSize(String size) {
+        long unit = switch (size.isEmpty() ? ' ' : Character.toLowerCase(size.charAt(size.length() - 1))) {
+            case 'k' ->
+                1L << 10;
+            case 'm' ->
+                1L << 20;
+            case 'g' ->
+                1L << 30;
+            default ->
+                1;
+        };
+        String digits = unit == 1 ? size : size.substring(0, size.length() - 1);
+        try {
+            long bytes = Long.parseLong(digits);
+            if (bytes > 0) {
+                return bytes * unit;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        usage();
+        return 0;
+    }
+
     private static void runFile(String path, Boolean testMode) throws IOException {
         interpreter = new Interpreter(false);
         Path filePath = Paths.get(path).toAbsolutePath();
         byte[] bytes = Files.readAllBytes(filePath);
         run(new String(bytes, Charset.defaultCharset()), testMode, filePath.normalize().toString());
+        if (verbose) {
+            System.err.println(Contracts.stats());
+            if (ModuleCache.used()) {
+                System.err.println(ModuleCache.stats());
+            }
+        }
         if (hadError) {
             System.exit(65);
         }
@@ -67,18 +173,60 @@ public class Tahini {
     }
 
     private static void run(String source, Boolean testMode, String filename) {
-        Scanner scanner = new Scanner(source, filename);
-        List<Token> tokens = scanner.scanTokens();
+        List<Stmt> statements = filename != null ? AstCache.load(filename, filename, source, testMode, false) : null;
+        if (statements == null) {
+            Scanner scanner = new Scanner(source, filename);
+            List<Token> tokens = scanner.scanTokens();
 
-        Parser parser = new Parser(tokens, testMode);
-        List<Stmt> statements = parser.parse();
+            Parser parser = new Parser(tokens, testMode);
+            statements = parser.parse();
 
-        // Stop if there was a syntax error.
-        if (hadError) {
-            return;
+            // Stop if there was a syntax error.
+            if (hadError) {
+                return;
+            }
+            if (filename != null) {
+                AstCache.save(filename, filename, source, testMode, false, statements);
+            }
         }
 
-        interpreter.interpret(statements);
+        statements = new Optimizer(interpreter).optimize(statements);
+        new Resolver().resolve(statements);
+
+        List<Stmt> program = statements;
+        if (engine == Engine.VM && filename != null) {
+            new VM(interpreter, stackBudget).interpret(program, filename);
+        } else if (engine == Engine.NODES && filename != null) {
+            onStack(() -> interpreter.interpret(NodeCompiler.compile(program)));
+        } else {
+            onStack(() -> interpreter.interpret(program));
+        }
+    }
+
+    // Runs an engine that recurses on the Java stack in a thread whose stack
+    // is the stack budget, so deep recursion is bounded by the same memory
+    // as on the VM, whatever the JIT has compiled so far.
+    private static void onStack(Runnable engine) {
+        Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                engine.run();
+            } catch (RuntimeException | Error e) {
+                failure[0] = e;
+            }
+        }, "tahini", stackBudget);
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure[0] instanceof RuntimeException e) {
+            throw e;
+        }
+        if (failure[0] instanceof Error e) {
+            throw e;
+        }
     }
 
     static void error(String filename, int line, String message) {
@@ -91,6 +239,10 @@ public class Tahini {
 
         List<CallFrame> callStack = error.callStack;
         for (int i = callStack.size() - 1; i >= 0; i--) {
+            if (i == callStack.size() - 1 - TRACE_EDGE && i >= TRACE_EDGE) {
+                System.err.print("[... " + (i - TRACE_EDGE + 1) + " more calls ...]");
+                i = TRACE_EDGE - 1;
+            }
             CallFrame frame = callStack.get(i);
             System.err.println(" in " + frame.function);
             System.err.println("[called at line " + frame.returnToLine + " in " + frame.returnToFilename + "]");
@@ -114,7 +266,7 @@ public class Tahini {
         }
     }
 
-    private static void visualizeAST(String path) throws IOException {
+    private static void visualizeAST(String path, boolean optimized) throws IOException {
         Path filePath = Paths.get(path).toAbsolutePath();
         byte[] bytes = Files.readAllBytes(filePath);
         String source = new String(bytes, Charset.defaultCharset());
@@ -129,6 +281,10 @@ public class Tahini {
             return;
         }
 
+        if (optimized) {
+            statements = new Optimizer(new Interpreter(false)).optimize(statements);
+        }
+
         ASTVisualizer visualizer = new ASTVisualizer();
         visualizer.display(statements);
     }
@@ -1,5 +1,6 @@
 package com.tahini.lang;
 
+import java.util.Arrays;
 import java.util.List;
 
 interface TahiniCallable {
@@ -9,4 +10,22 @@ interface TahiniCallable {
     boolean isInternal();
 
     Object call(Interpreter interpreter, List<Object> arguments);
+
+    // Fixed-arity entry points, used by callers that know the argument count
+    // so they can skip building a list. Override them to avoid the list too.
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, Arrays.asList());
+    }
+
+    default Object call1(Interpreter interpreter, Object a) {
+        return call(interpreter, Arrays.asList(a));
+    }
+
+    default Object call2(Interpreter interpreter, Object a, Object b) {
+        return call(interpreter, Arrays.asList(a, b));
+    }
+
+    default Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return call(interpreter, Arrays.asList(a, b, c));
+    }
 }
@@ -6,9 +6,22 @@ import java.util.List;
 class TahiniFunction implements TahiniCallable {
 
     private final Stmt.Function declaration;
+    // scope the function was declared in, the parent of every call
+    private final Environment closure;
+    // linked body when running on the node engine, null for the Interpreter
+    private final Node body;
+    // false when there are no contracts, e.g. all stripped by --contracts=off
+    private final boolean contracted;
 
-    TahiniFunction(Stmt.Function declaration) {
+    TahiniFunction(Stmt.Function declaration, Environment closure) {
+        this(declaration, closure, null);
+    }
+
+    TahiniFunction(Stmt.Function declaration, Environment closure, Node body) {
         this.declaration = declaration;
+        this.closure = closure;
+        this.body = body;
+        this.contracted = !declaration.preconditions.isEmpty() || !declaration.postconditions.isEmpty();
     }
 
     @Override
@@ -24,34 +37,152 @@ class TahiniFunction implements TahiniCallable {
     @Override
     public Object call(Interpreter interpreter,
             List<Object> arguments) {
-        Environment environment = new Environment(interpreter.environment);
-        for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme,
-                    arguments.get(i));
+        Environment environment = newEnvironment();
+        for (int i = 0; i < arguments.size(); i++) {
+            bind(environment, i, arguments.get(i));
         }
+        return run(interpreter, environment);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return run(interpreter, newEnvironment());
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        Environment environment = newEnvironment();
+        bind(environment, 0, a);
+        return run(interpreter, environment);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        Environment environment = newEnvironment();
+        bind(environment, 0, a);
+        bind(environment, 1, b);
+        return run(interpreter, environment);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        Environment environment = newEnvironment();
+        bind(environment, 0, a);
+        bind(environment, 1, b);
+        bind(environment, 2, c);
+        return run(interpreter, environment);
+    }
+
+    // The scope of one call, once the body is parsed if the Parser skipped it.
+    private Environment newEnvironment() {
+        LazyBody.parse(declaration);
+        return new Environment(closure, declaration.locals);
+    }
+
+    private void bind(Environment environment, int index, Object value) {
+        if (declaration.locals != null) {
+            environment.defineAt(index, value);
+        } else {
+            environment.define(declaration.params.get(index).lexeme, value);
+        }
+    }
+
+    // A function that was replaced by a tail call, with the scope its
+    // postconditions are checked in once the call chain returns. It keeps
+    // its frame on the call stack until then, as it does on the VM.
+    private static final class Pending {
 
+        final TahiniFunction function;
+        final Environment environment;
+
+        Pending(TahiniFunction function, Environment environment) {
+            this.function = function;
+            this.environment = environment;
+        }
+    }
+
+    // Runs the body, then keeps running the targets of `return f(...)` in
+    // the same Java frame until one returns normally. Their postconditions
+    // are checked afterwards, innermost first, as nested calls would, and
+    // traces show the functions that still have them to check.
+    // Each invocation checks all its contracts or none, see Contracts, but
+    // leaves out preconditions its call site was proven to meet.
+    private Object run(Interpreter interpreter, Environment environment) {
+        TahiniFunction function = this;
+        boolean discharged = interpreter.discharged;
+        interpreter.discharged = false;
+        List<Pending> pending = null;
+        Object returnValue;
+        boolean checked;
+        while (true) {
+            checked = function.contracted && Contracts.check(function.declaration);
+            if (checked && !discharged) {
+                function.checkPreconditions(interpreter, environment);
+            }
+            returnValue = function.execute(interpreter, environment);
+            if (!(returnValue instanceof TailCall tailCall)) {
+                break;
+            }
+            if (checked && !function.declaration.postconditions.isEmpty()) {
+                if (pending == null) {
+                    pending = new ArrayList<>();
+                }
+                pending.add(new Pending(function, environment));
+                interpreter.callStack.push(tailCall.function, tailCall.paren);
+            } else {
+                interpreter.callStack.replaceTop(tailCall.function);
+            }
+            function = tailCall.function;
+            discharged = tailCall.discharged;
+            environment = function.newEnvironment();
+            for (int i = 0; i < tailCall.arguments.size(); i++) {
+                function.bind(environment, i, tailCall.arguments.get(i));
+            }
+        }
+
+        if (checked) {
+            function.checkPostconditions(interpreter, environment);
+        }
+        if (pending != null) {
+            for (int i = pending.size() - 1; i >= 0; i--) {
+                Pending replaced = pending.get(i);
+                interpreter.callStack.pop();
+                replaced.function.checkPostconditions(interpreter, replaced.environment);
+            }
+        }
+
+        return returnValue;
+    }
+
+    // The body's return value, or null when it runs off its end.
+    private Object execute(Interpreter interpreter, Environment environment) {
+        Completion completion = body != null
+                ? interpreter.executeBlock(body, environment)
+                : interpreter.executeBlock(declaration.body, environment);
+        if (completion != Completion.RETURN) {
+            return null;
+        }
+        Object value = interpreter.returnValue;
+        interpreter.returnValue = null;
+        return value;
+    }
+
+    private void checkPreconditions(Interpreter interpreter, Environment environment) {
         Expr failingPre = interpreter.evaluateContractConditions(declaration.preconditions, environment);
         if (failingPre != null) {
             String errormsg = declaration.premsg != null ? "Precondition failed: " + declaration.premsg : "Precondition failed.";
             throw new RuntimeError(declaration.name,
                     errormsg, new ArrayList<>());
         }
+    }
 
-        Object returnValue = null;
-        try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValueException) {
-            returnValue = returnValueException.value;
-        }
-
+    private void checkPostconditions(Interpreter interpreter, Environment environment) {
         Expr failingPost = interpreter.evaluateContractConditions(declaration.postconditions, environment);
         if (failingPost != null) {
             String errormsg = declaration.postmsg != null ? "Postcondition failed: " + declaration.postmsg : "Postcondition failed.";
             throw new RuntimeError(declaration.name,
                     errormsg, new ArrayList<>());
         }
-
-        return returnValue;
     }
 
     @Override
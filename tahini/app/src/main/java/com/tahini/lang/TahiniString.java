@@ -0,0 +1,142 @@
+package com.tahini.lang;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A long Tahini string made by `+` or slicing, kept as a rope instead of
+ * being copied: either a range of a String whose characters it shares, or
+ * the concatenation of two strings. It is flattened into a String the first
+ * time something needs all of its characters at once, like printing,
+ * hashing or a native, and keeps that String afterwards. Shorter results
+ * are built as plain Strings, which are cheaper to copy than to share.
+ *
+ * Both kinds are Tahini strings to `typeOf`, `len` and `==`. Ropes are
+ * flattened before they are stored in a list or map, so equality and hashing
+ * inside collections only ever see Strings.
+ */
+final class TahiniString implements CharSequence {
+
+    // results up to this many characters are copied into a String
+    static final int FLAT_LIMIT = 64;
+
+    private final int length;
+    // a range of base, or the concatenation of left and right
+    private String base;
+    private int from;
+    private CharSequence left;
+    private CharSequence right;
+
+    private TahiniString(String base, int from, int to) {
+        this.length = to - from;
+        this.base = base;
+        this.from = from;
+    }
+
+    private TahiniString(CharSequence left, CharSequence right) {
+        this.length = left.length() + right.length();
+        this.left = left;
+        this.right = right;
+    }
+
+    static CharSequence concat(CharSequence left, CharSequence right) {
+        if (left.isEmpty()) {
+            return right;
+        }
+        if (right.isEmpty()) {
+            return left;
+        }
+        if (left.length() + right.length() <= FLAT_LIMIT) {
+            return left.toString().concat(right.toString());
+        }
+        return new TahiniString(left, right);
+    }
+
+    static CharSequence slice(CharSequence text, int from, int to) {
+        if (from == 0 && to == text.length()) {
+            return text;
+        }
+        String base = text instanceof TahiniString rope ? rope.base() : (String) text;
+        int offset = text instanceof TahiniString rope ? rope.from : 0;
+        if (to - from <= FLAT_LIMIT) {
+            return base.substring(offset + from, offset + to);
+        }
+        return new TahiniString(base, offset + from, offset + to);
+    }
+
+    // The value as a String if it is a rope, to store it or hand it to Java.
+    static Object flatten(Object value) {
+        return value instanceof TahiniString rope ? rope.toString() : value;
+    }
+
+    static boolean contentEquals(Object a, Object b) {
+        if (!(a instanceof CharSequence x) || !(b instanceof CharSequence y) || x.length() != y.length()) {
+            return false;
+        }
+        return x.toString().contentEquals(y);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return base().charAt(from + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return slice(this, start, end);
+    }
+
+    @Override
+    public String toString() {
+        String flat = base();
+        if (from != 0 || length != flat.length()) {
+            base = flat.substring(from, from + length);
+            from = 0;
+        }
+        return base;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof TahiniString && contentEquals(this, other);
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    // The String this rope is a range of, flattening a concatenation once.
+    private String base() {
+        if (base == null) {
+            char[] chars = new char[length];
+            Deque<CharSequence> pending = new ArrayDeque<>();
+            pending.push(this);
+            int at = 0;
+            while (!pending.isEmpty()) {
+                CharSequence piece = pending.pop();
+                if (piece instanceof TahiniString rope && rope.base == null) {
+                    pending.push(rope.right);
+                    pending.push(rope.left);
+                } else if (piece instanceof TahiniString rope) {
+                    rope.base.getChars(rope.from, rope.from + rope.length, chars, at);
+                    at += rope.length;
+                } else {
+                    String text = (String) piece;
+                    text.getChars(0, text.length(), chars, at);
+                    at += text.length();
+                }
+            }
+            base = new String(chars);
+            from = 0;
+            left = null;
+            right = null;
+        }
+        return base;
+    }
+}
@@ -0,0 +1,341 @@
+package com.tahini.lang;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The value of a Tahini list: an immutable sequence that shares its
+ * structure with the lists it was made from. It is a height-balanced tree
+ * whose leaves are ranges of arrays, so `+`, slicing and appending build a
+ * new list in O(log n) instead of copying the old one. A list built in one
+ * go, like a literal, is a single leaf and indexes in O(1); lists grown by
+ * `+` index in O(log n). As a java.util.List it compares, hashes and
+ * prints like any other list.
+ *
+ * Leaves that hold only numbers keep them unboxed in a double[], so a
+ * numeric list costs 8 bytes per element and numberAt reads it without
+ * allocating. Joining a number leaf with a leaf of other values boxes the
+ * numbers into one leaf, so a list widens only where it mixes types.
+ */
+final class TahiniVector extends AbstractList<Object> {
+
+    // leaves joined while they fit in this many elements, so a list grown
+    // one element at a time still ends up in full leaves
+    private static final int LEAF_SIZE = 32;
+
+    private static final TahiniVector EMPTY = new TahiniVector(new NumberLeaf(new double[0], 0, 0));
+
+    private abstract static class Piece {
+
+        final int size;
+        final int height;
+        // whether every element is a number held in a NumberLeaf
+        final boolean numeric;
+
+        Piece(int size, int height, boolean numeric) {
+            this.size = size;
+            this.height = height;
+            this.numeric = numeric;
+        }
+
+        abstract void copyInto(Object[] target, int at);
+    }
+
+    private abstract static class LeafPiece extends Piece {
+
+        final int from;
+
+        LeafPiece(int from, int to, boolean numeric) {
+            super(to - from, 0, numeric);
+            this.from = from;
+        }
+
+        abstract Object get(int index);
+
+        abstract LeafPiece slice(int from, int to);
+    }
+
+    private static final class Leaf extends LeafPiece {
+
+        final Object[] items;
+
+        Leaf(Object[] items, int from, int to) {
+            super(from, to, false);
+            this.items = items;
+        }
+
+        @Override
+        Object get(int index) {
+            return items[from + index];
+        }
+
+        @Override
+        LeafPiece slice(int start, int end) {
+            return new Leaf(items, from + start, from + end);
+        }
+
+        @Override
+        void copyInto(Object[] target, int at) {
+            System.arraycopy(items, from, target, at, size);
+        }
+    }
+
+    private static final class NumberLeaf extends LeafPiece {
+
+        final double[] numbers;
+
+        NumberLeaf(double[] numbers, int from, int to) {
+            super(from, to, true);
+            this.numbers = numbers;
+        }
+
+        @Override
+        Object get(int index) {
+            return numbers[from + index];
+        }
+
+        @Override
+        LeafPiece slice(int start, int end) {
+            return new NumberLeaf(numbers, from + start, from + end);
+        }
+
+        @Override
+        void copyInto(Object[] target, int at) {
+            for (int i = 0; i < size; i++) {
+                target[at + i] = numbers[from + i];
+            }
+        }
+    }
+
+    private static final class Branch extends Piece {
+
+        final Piece left;
+        final Piece right;
+
+        Branch(Piece left, Piece right) {
+            super(left.size + right.size, Math.max(left.height, right.height) + 1, left.numeric && right.numeric);
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        void copyInto(Object[] target, int at) {
+            left.copyInto(target, at);
+            right.copyInto(target, at + left.size);
+        }
+    }
+
+    private final Piece root;
+
+    private TahiniVector(Piece root) {
+        this.root = root;
+    }
+
+    // The list of these items, which must not be changed afterwards.
+    static TahiniVector of(Object[] items) {
+        if (items.length == 0) {
+            return EMPTY;
+        }
+        double[] numbers = new double[items.length];
+        for (int i = 0; i < items.length; i++) {
+            if (!(items[i] instanceof Double number)) {
+                return new TahiniVector(new Leaf(items, 0, items.length));
+            }
+            numbers[i] = number;
+        }
+        return new TahiniVector(new NumberLeaf(numbers, 0, numbers.length));
+    }
+
+    static TahiniVector of(List<?> list) {
+        return list instanceof TahiniVector vector ? vector : of(list.toArray());
+    }
+
+    @Override
+    public Object get(int index) {
+        Objects.checkIndex(index, root.size);
+        Piece piece = root;
+        while (piece instanceof Branch branch) {
+            if (index < branch.left.size) {
+                piece = branch.left;
+            } else {
+                index -= branch.left.size;
+                piece = branch.right;
+            }
+        }
+        return ((LeafPiece) piece).get(index);
+    }
+
+    // Whether every element is a number that numberAt can read unboxed.
+    boolean isNumeric() {
+        return root.numeric;
+    }
+
+    // The element at index of a numeric list, without boxing it.
+    double numberAt(int index) {
+        Objects.checkIndex(index, root.size);
+        Piece piece = root;
+        while (piece instanceof Branch branch) {
+            if (index < branch.left.size) {
+                piece = branch.left;
+            } else {
+                index -= branch.left.size;
+                piece = branch.right;
+            }
+        }
+        NumberLeaf leaf = (NumberLeaf) piece;
+        return leaf.numbers[leaf.from + index];
+    }
+
+    @Override
+    public int size() {
+        return root.size;
+    }
+
+    @Override
+    public Object[] toArray() {
+        Object[] items = new Object[root.size];
+        root.copyInto(items, 0);
+        return items;
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        return Arrays.asList(toArray()).iterator();
+    }
+
+    TahiniVector concat(TahiniVector other) {
+        return new TahiniVector(join(root, other.root));
+    }
+
+    TahiniVector slice(int from, int to) {
+        Objects.checkFromToIndex(from, to, root.size);
+        return new TahiniVector(slice(root, from, to));
+    }
+
+    private static Piece slice(Piece piece, int from, int to) {
+        if (from == 0 && to == piece.size) {
+            return piece;
+        }
+        if (piece instanceof LeafPiece leaf) {
+            return leaf.slice(from, to);
+        }
+        Branch branch = (Branch) piece;
+        int middle = branch.left.size;
+        if (to <= middle) {
+            return slice(branch.left, from, to);
+        }
+        if (from >= middle) {
+            return slice(branch.right, from - middle, to - middle);
+        }
+        return join(slice(branch.left, from, middle), slice(branch.right, 0, to - middle));
+    }
+
+    private static Piece join(Piece left, Piece right) {
+        if (left.size == 0) {
+            return right;
+        }
+        if (right.size == 0) {
+            return left;
+        }
+        if (right instanceof LeafPiece leaf && leaf.size < LEAF_SIZE) {
+            Piece joined = appendLeaf(left, leaf);
+            if (joined != null) {
+                return joined;
+            }
+        }
+        if (left instanceof LeafPiece leaf && leaf.size < LEAF_SIZE) {
+            Piece joined = prependLeaf(leaf, right);
+            if (joined != null) {
+                return joined;
+            }
+        }
+        return link(left, right);
+    }
+
+    // The piece with its last leaf and the given one copied into a single
+    // leaf, or null if they do not fit. The tree keeps its shape.
+    private static Piece appendLeaf(Piece piece, LeafPiece leaf) {
+        if (piece instanceof Branch branch) {
+            Piece right = appendLeaf(branch.right, leaf);
+            return right != null ? new Branch(branch.left, right) : null;
+        }
+        return merge((LeafPiece) piece, leaf);
+    }
+
+    private static Piece prependLeaf(LeafPiece leaf, Piece piece) {
+        if (piece instanceof Branch branch) {
+            Piece left = prependLeaf(leaf, branch.left);
+            return left != null ? new Branch(left, branch.right) : null;
+        }
+        return merge(leaf, (LeafPiece) piece);
+    }
+
+    // One leaf with the elements of both, unboxed if both are numeric.
+    private static LeafPiece merge(LeafPiece first, LeafPiece second) {
+        if (first.size + second.size > LEAF_SIZE) {
+            return null;
+        }
+        if (first instanceof NumberLeaf a && second instanceof NumberLeaf b) {
+            double[] numbers = new double[a.size + b.size];
+            System.arraycopy(a.numbers, a.from, numbers, 0, a.size);
+            System.arraycopy(b.numbers, b.from, numbers, a.size, b.size);
+            return new NumberLeaf(numbers, 0, numbers.length);
+        }
+        Object[] items = new Object[first.size + second.size];
+        first.copyInto(items, 0);
+        second.copyInto(items, first.size);
+        return new Leaf(items, 0, items.length);
+    }
+
+    // Joins two balanced trees into one, in time proportional to the
+    // difference of their heights.
+    private static Piece link(Piece left, Piece right) {
+        if (left.height > right.height + 1) {
+            return linkRight((Branch) left, right);
+        }
+        if (right.height > left.height + 1) {
+            return linkLeft(left, (Branch) right);
+        }
+        return new Branch(left, right);
+    }
+
+    // Hangs the lower right tree off the right spine of the taller left one.
+    private static Piece linkRight(Branch left, Piece right) {
+        if (left.right.height <= right.height + 1) {
+            Branch joined = new Branch(left.right, right);
+            if (joined.height <= left.left.height + 1) {
+                return new Branch(left.left, joined);
+            }
+            return rotateLeft(new Branch(left.left, rotateRight(joined)));
+        }
+        Piece joined = linkRight((Branch) left.right, right);
+        Branch result = new Branch(left.left, joined);
+        return joined.height <= left.left.height + 1 ? result : rotateLeft(result);
+    }
+
+    private static Piece linkLeft(Piece left, Branch right) {
+        if (right.left.height <= left.height + 1) {
+            Branch joined = new Branch(left, right.left);
+            if (joined.height <= right.right.height + 1) {
+                return new Branch(joined, right.right);
+            }
+            return rotateRight(new Branch(rotateLeft(joined), right.right));
+        }
+        Piece joined = linkLeft(left, (Branch) right.left);
+        Branch result = new Branch(joined, right.right);
+        return joined.height <= right.right.height + 1 ? result : rotateRight(result);
+    }
+
+    private static Branch rotateLeft(Branch branch) {
+        Branch right = (Branch) branch.right;
+        return new Branch(new Branch(branch.left, right.left), right.right);
+    }
+
+    private static Branch rotateRight(Branch branch) {
+        Branch left = (Branch) branch.left;
+        return new Branch(left.left, new Branch(left.right, branch.right));
+    }
+}
@@ -0,0 +1,23 @@
+package com.tahini.lang;
+
+import java.util.List;
+
+// Left as the return value by `return f(...)` when f is a Tahini function.
+// The function that is returning runs f in its own place, so tail calls do
+// not grow the Java stack. See TahiniFunction.run.
+final class TailCall {
+
+    final TahiniFunction function;
+    final List<Object> arguments;
+    // whether the call site's preconditions were proven, see Discharger
+    final boolean discharged;
+    // where the call is traced from if the returning function stays on the call stack
+    final Token paren;
+
+    TailCall(TahiniFunction function, List<Object> arguments, boolean discharged, Token paren) {
+        this.function = function;
+        this.arguments = arguments;
+        this.discharged = discharged;
+        this.paren = paren;
+    }
+}
@@ -0,0 +1,740 @@
+package com.tahini.lang;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stack-based virtual machine running chunks produced by the Compiler.
+ *
+ * Tahini-to-Tahini calls and scooped modules push frames onto the VM's own
+ * frame list instead of recursing in Java. Values, environments, natives and
+ * error reporting are shared with the tree-walking Interpreter, so both
+ * engines behave the same.
+ *
+ * Recursion depth is therefore not bounded by the Java stack. It is bounded
+ * by a budget on the estimated memory of the frames instead, and a call
+ * exceeding it fails with a RuntimeError carrying the Tahini call trace.
+ */
+class VM {
+
+    private static final class Frame {
+
+        final Chunk chunk;
+        final VMFunction function;
+        // false for module bodies and calls made through invoke()
+        final boolean onCallStack;
+        final Stmt.Import module;
+        final Environment base;
+        final int stackBase;
+        Environment env;
+        int ip = 0;
+        Object returnValue;
+        // estimated memory held by this frame and all frames below it
+        long stackBytes;
+        // set when contract sampling skips this call's contracts
+        boolean unchecked;
+        // set when the call site was proven to meet the preconditions
+        boolean discharged;
+
+        Frame(Chunk chunk, VMFunction function, boolean onCallStack, Stmt.Import module, Environment env, int stackBase) {
+            this.chunk = chunk;
+            this.function = function;
+            this.onCallStack = onCallStack;
+            this.module = module;
+            this.base = env;
+            this.env = env;
+            this.stackBase = stackBase;
+        }
+    }
+
+    // An active test block, where a RuntimeError resumes execution.
+    private static final class Handler {
+
+        final Stmt.Test test;
+        final int frameCount;
+        final Environment env;
+        final int sp;
+        final int target;
+        final int callStackSize;
+
+        Handler(Stmt.Test test, int frameCount, Environment env, int sp, int target, int callStackSize) {
+            this.test = test;
+            this.frameCount = frameCount;
+            this.env = env;
+            this.sp = sp;
+            this.target = target;
+            this.callStackSize = callStackSize;
+        }
+    }
+
+    // Rough per-frame costs for the stack budget: the frame, its environment,
+    // its trace entry and its operand stack share, plus each local slot.
+    private static final int FRAME_BYTES = 192;
+    private static final int SLOT_BYTES = 24;
+
+    private final Interpreter interpreter;
+    private final long stackBudget;
+
+    private Object[] stack = new Object[256];
+    private int sp = 0;
+
+    private final List<Frame> frames = new ArrayList<>();
+    private final CallStack callStack = new CallStack();
+    private final List<Handler> handlers = new ArrayList<>();
+
+    VM(Interpreter interpreter, long stackBudget) {
+        this.interpreter = interpreter;
+        this.stackBudget = stackBudget;
+    }
+
+    void interpret(List<Stmt> statements, String filename) {
+        try {
+            Chunk chunk = Compiler.compileScript(statements, filename);
+            frames.add(new Frame(chunk, null, false, null, interpreter.globals, sp));
+            run(0);
+        } catch (RuntimeError error) {
+            Tahini.runtimeError(error);
+        }
+
+        if (!interpreter.testResults.isEmpty()) {
+            interpreter.printTestResults();
+        }
+    }
+
+    // Runs a VM function on behalf of Java code, e.g. a native calling back.
+    Object invoke(VMFunction function, List<Object> arguments) {
+        int baseFrames = frames.size();
+        push(function);
+        for (Object argument : arguments) {
+            push(argument);
+        }
+        enterFunction(function, arguments.size(), false);
+        run(baseFrames);
+        return pop();
+    }
+
+    private void push(Object value) {
+        if (sp == stack.length) {
+            growStack();
+        }
+        stack[sp++] = value;
+    }
+
+    private void growStack() {
+        stack = Arrays.copyOf(stack, stack.length * 2);
+    }
+
+    private Object pop() {
+        return stack[--sp];
+    }
+
+    private void popN(int count) {
+        Arrays.fill(stack, sp - count, sp, null);
+        sp -= count;
+    }
+
+    private Object peek() {
+        return stack[sp - 1];
+    }
+
+    private static int readShort(byte[] code, int ip) {
+        return ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+    }
+
+    private boolean isTruthy(Object value) {
+        return value instanceof Boolean b ? b : interpreter.isTruthy(value);
+    }
+
+    // The current frame's code, constants, ip and environment are kept in
+    // locals and written back to the frame whenever control leaves it.
+    private void run(int baseFrames) {
+        Frame frame = frames.get(frames.size() - 1);
+        byte[] code = frame.chunk.code;
+        Object[] constants = frame.chunk.constants;
+        int ip = frame.ip;
+        Environment env = frame.env;
+
+        while (true) {
+            int start = ip;
+            try {
+                byte op = code[ip++];
+                switch (op) {
+                    case OpCode.CONSTANT -> {
+                        push(constants[readShort(code, ip)]);
+                        ip += 2;
+                    }
+                    case OpCode.NIL ->
+                        push(null);
+                    case OpCode.TRUE ->
+                        push(true);
+                    case OpCode.FALSE ->
+                        push(false);
+                    case OpCode.POP ->
+                        pop();
+                    case OpCode.GET_LOCAL -> {
+                        int depth = code[ip] & 0xff;
+                        int slot = readShort(code, ip + 1);
+                        Token name = (Token) constants[readShort(code, ip + 3)];
+                        ip += 5;
+                        push(env.getAt(depth, slot, name));
+                    }
+                    case OpCode.SET_LOCAL -> {
+                        int depth = code[ip] & 0xff;
+                        int slot = readShort(code, ip + 1);
+                        Token name = (Token) constants[readShort(code, ip + 3)];
+                        ip += 5;
+                        env.assignAt(depth, slot, name, peek());
+                    }
+                    case OpCode.STORE_LOCAL -> {
+                        int depth = code[ip] & 0xff;
+                        int slot = readShort(code, ip + 1);
+                        Token name = (Token) constants[readShort(code, ip + 3)];
+                        ip += 5;
+                        env.assignAt(depth, slot, name, pop());
+                    }
+                    case OpCode.DEFINE_LOCAL -> {
+                        env.defineAt(readShort(code, ip), pop());
+                        ip += 2;
+                    }
+                    case OpCode.GET_NAME -> {
+                        Token name = (Token) constants[readShort(code, ip)];
+                        ip += 2;
+                        push(env.getValue(name));
+                    }
+                    case OpCode.SET_NAME -> {
+                        Token name = (Token) constants[readShort(code, ip)];
+                        ip += 2;
+                        env.assign(name, peek());
+                    }
+                    case OpCode.STORE_NAME -> {
+                        Token name = (Token) constants[readShort(code, ip)];
+                        ip += 2;
+                        env.assign(name, pop());
+                    }
+                    case OpCode.DEFINE_NAME -> {
+                        Token name = (Token) constants[readShort(code, ip)];
+                        ip += 2;
+                        env.define(name.lexeme, pop());
+                    }
+                    case OpCode.GET_NAMESPACED -> {
+                        @SuppressWarnings("unchecked")
+                        List<Token> nameParts = (List<Token>) constants[readShort(code, ip)];
+                        ip += 2;
+                        push(namespaceOf(env, nameParts).getValue(nameParts.get(nameParts.size() - 1)));
+                    }
+                    case OpCode.ADD -> {
+                        Object right = pop();
+                        Object left = pop();
+                        if (left instanceof Double a && right instanceof Double b) {
+                            push(a + b);
+                        } else {
+                            push(interpreter.binaryOp((Token) constants[readShort(code, ip)], left, right));
+                        }
+                        ip += 2;
+                    }
+                    case OpCode.SUBTRACT -> {
+                        Object right = pop();
+                        Object left = pop();
+                        if (left instanceof Double a && right instanceof Double b) {
+                            push(a - b);
+                        } else {
+                            push(interpreter.binaryOp((Token) constants[readShort(code, ip)], left, right));
+                        }
+                        ip += 2;
+                    }
+                    case OpCode.MULTIPLY -> {
+                        Object right = pop();
+                        Object left = pop();
+                        if (left instanceof Double a && right instanceof Double b) {
+                            push(a * b);
+                        } else {
+                            push(interpreter.binaryOp((Token) constants[readShort(code, ip)], left, right));
+                        }
+                        ip += 2;
+                    }
+                    case OpCode.DIVIDE -> {
+                        Object right = pop();
+                        Object left = pop();
+                        if (left instanceof Double a && right instanceof Double b && b != 0) {
+                            push(a / b);
+                        } else {
+                            push(interpreter.binaryOp((Token) constants[readShort(code, ip)], left, right));
+                        }
+                        ip += 2;
+                    }
+                    case OpCode.MODULO -> {
+                        Object right = pop();
+                        Object left = pop();
+                        if (left instanceof Double a && right instanceof Double b && b != 0) {
+                            push(a % b);
+                        } else {
+                            push(interpreter.binaryOp((Token) constants[readShort(code, ip)], left, right));
+                        }
+                        ip += 2;
+                    }
+                    case OpCode.GREATER -> {
+                        Object right = pop();
+                        Object left = pop();
+                        if (left instanceof Double a && right instanceof Double b) {
+                            push(a > b);
+                        } else {
+                            push(interpreter.binaryOp((Token) constants[readShort(code, ip)], left, right));
+                        }
+                        ip += 2;
+                    }
+                    case OpCode.GREATER_EQUAL -> {
+                        Object right = pop();
+                        Object left = pop();
+                        if (left instanceof Double a && right instanceof Double b) {
+                            push(a >= b);
+                        } else {
+                            push(interpreter.binaryOp((Token) constants[readShort(code, ip)], left, right));
+                        }
+                        ip += 2;
+                    }
+                    case OpCode.LESS -> {
+                        Object right = pop();
+                        Object left = pop();
+                        if (left instanceof Double a && right instanceof Double b) {
+                            push(a < b);
+                        } else {
+                            push(interpreter.binaryOp((Token) constants[readShort(code, ip)], left, right));
+                        }
+                        ip += 2;
+                    }
+                    case OpCode.LESS_EQUAL -> {
+                        Object right = pop();
+                        Object left = pop();
+                        if (left instanceof Double a && right instanceof Double b) {
+                            push(a <= b);
+                        } else {
+                            push(interpreter.binaryOp((Token) constants[readShort(code, ip)], left, right));
+                        }
+                        ip += 2;
+                    }
+                    case OpCode.EQUAL -> {
+                        Object right = pop();
+                        Object left = pop();
+                        push(interpreter.isEqual(left, right));
+                    }
+                    case OpCode.NOT_EQUAL -> {
+                        Object right = pop();
+                        Object left = pop();
+                        push(!interpreter.isEqual(left, right));
+                    }
+                    case OpCode.NEGATE -> {
+                        Object right = pop();
+                        if (right instanceof Double a) {
+                            push(-a);
+                        } else {
+                            push(interpreter.unaryOp((Token) constants[readShort(code, ip)], right));
+                        }
+                        ip += 2;
+                    }
+                    case OpCode.NOT ->
+                        push(!isTruthy(pop()));
+                    case OpCode.JUMP ->
+                        ip += readShort(code, ip) + 2;
+                    case OpCode.JUMP_IF_FALSE -> {
+                        if (!isTruthy(pop())) {
+                            ip += readShort(code, ip);
+                        }
+                        ip += 2;
+                    }
+                    case OpCode.JUMP_IF_FALSE_KEEP -> {
+                        if (!isTruthy(peek())) {
+                            ip += readShort(code, ip);
+                        }
+                        ip += 2;
+                    }
+                    case OpCode.JUMP_IF_TRUE_KEEP -> {
+                        if (isTruthy(peek())) {
+                            ip += readShort(code, ip);
+                        }
+                        ip += 2;
+                    }
+                    case OpCode.LOOP ->
+                        ip = ip + 2 - readShort(code, ip);
+                    case OpCode.GET_CALLEE -> {
+                        push(InlineCache.callee((Expr.Call) constants[readShort(code, ip)], env));
+                        ip += 2;
+                    }
+                    case OpCode.CALL -> {
+                        int argCount = code[ip] & 0xff;
+                        Expr.Call call = (Expr.Call) constants[readShort(code, ip + 1)];
+                        ip += 3;
+                        frame.ip = ip;
+                        frame.env = env;
+                        Frame next = call(argCount, call);
+                        if (next != null) {
+                            frame = next;
+                            code = frame.chunk.code;
+                            constants = frame.chunk.constants;
+                            ip = frame.ip;
+                            env = frame.env;
+                        }
+                    }
+                    case OpCode.TAIL_CALL -> {
+                        int argCount = code[ip] & 0xff;
+                        Expr.Call call = (Expr.Call) constants[readShort(code, ip + 1)];
+                        ip += 3;
+                        Object callee = stack[sp - argCount - 1];
+                        if (callee instanceof VMFunction function && function.arity() == argCount
+                                && frame.function != null
+                                && (frame.function.compiled.postconditionStart < 0 || frame.unchecked)) {
+                            frame = replaceFrame(frame, function, argCount);
+                            frame.discharged = call.discharged;
+                            code = frame.chunk.code;
+                            constants = frame.chunk.constants;
+                            ip = frame.ip;
+                            env = frame.env;
+                        } else {
+                            // an ordinary call, whose result the following RETURN returns
+                            frame.ip = ip;
+                            frame.env = env;
+                            Frame next = call(argCount, call);
+                            if (next != null) {
+                                frame = next;
+                                code = frame.chunk.code;
+                                constants = frame.chunk.constants;
+                                ip = frame.ip;
+                                env = frame.env;
+                            }
+                        }
+                    }
+                    case OpCode.FUNCTION -> {
+                        push(new VMFunction((CompiledFunction) constants[readShort(code, ip)], env, this));
+                        ip += 2;
+                    }
+                    case OpCode.RETURN, OpCode.FINISH -> {
+                        if (op == OpCode.RETURN) {
+                            frame.returnValue = pop();
+                            while (!handlers.isEmpty() && handlers.get(handlers.size() - 1).frameCount == frames.size()) {
+                                handlers.remove(handlers.size() - 1);
+                            }
+                            env = frame.base;
+                            int postconditionStart = frame.function.compiled.postconditionStart;
+                            if (postconditionStart >= 0 && !frame.unchecked) {
+                                // Postconditions run in the function's scope before returning.
+                                ip = postconditionStart;
+                                continue;
+                            }
+                        }
+                        frame = finish(frame);
+                        if (frames.size() == baseFrames) {
+                            return;
+                        }
+                        code = frame.chunk.code;
+                        constants = frame.chunk.constants;
+                        ip = frame.ip;
+                        env = frame.env;
+                    }
+                    case OpCode.SAMPLE_CALL -> {
+                        if (!Contracts.check(frame.function.compiled.declaration)) {
+                            frame.unchecked = true;
+                            ip += readShort(code, ip);
+                        } else if (frame.discharged) {
+                            ip += readShort(code, ip);
+                        }
+                        ip += 2;
+                    }
+                    case OpCode.CHECK_PRECONDITION -> {
+                        if (!isTruthy(pop())) {
+                            Stmt.Function declaration = frame.function.compiled.declaration;
+                            String errormsg = declaration.premsg != null ? "Precondition failed: " + declaration.premsg : "Precondition failed.";
+                            throw new RuntimeError(declaration.name, errormsg, new ArrayList<>());
+                        }
+                    }
+                    case OpCode.CHECK_POSTCONDITION -> {
+                        if (!isTruthy(pop())) {
+                            Stmt.Function declaration = frame.function.compiled.declaration;
+                            String errormsg = declaration.postmsg != null ? "Postcondition failed: " + declaration.postmsg : "Postcondition failed.";
+                            throw new RuntimeError(declaration.name, errormsg, new ArrayList<>());
+                        }
+                    }
+                    case OpCode.LIST -> {
+                        int count = readShort(code, ip);
+                        ip += 2;
+                        Object[] items = Arrays.copyOfRange(stack, sp - count, sp);
+                        for (int i = 0; i < count; i++) {
+                            items[i] = TahiniString.flatten(items[i]);
+                        }
+                        popN(count);
+                        push(TahiniVector.of(items));
+                    }
+                    case OpCode.MAP -> {
+                        int count = readShort(code, ip);
+                        ip += 2;
+                        Map<Object, Object> tahiniMap = new HashMap<>();
+                        for (int i = sp - 2 * count; i < sp; i += 2) {
+                            tahiniMap.put(TahiniString.flatten(stack[i]), TahiniString.flatten(stack[i + 1]));
+                        }
+                        popN(2 * count);
+                        push(tahiniMap);
+                    }
+                    case OpCode.INDEX -> {
+                        Token paren = (Token) constants[readShort(code, ip)];
+                        ip += 2;
+                        Object index = pop();
+                        Object collection = pop();
+                        push(interpreter.listAccess(paren, collection, index));
+                    }
+                    case OpCode.SLICE -> {
+                        Token paren = (Token) constants[readShort(code, ip)];
+                        ip += 2;
+                        Object end = pop();
+                        Object begin = pop();
+                        Object collection = pop();
+                        push(interpreter.listSlice(paren, collection, begin, end));
+                    }
+                    case OpCode.PRINT ->
+                        System.out.println(interpreter.stringify(pop()));
+                    case OpCode.PUSH_SCOPE -> {
+                        env = new Environment(env, (String[]) constants[readShort(code, ip)]);
+                        ip += 2;
+                    }
+                    case OpCode.POP_SCOPE ->
+                        env = env.enclosing;
+                    case OpCode.SAMPLE_CONTRACT -> {
+                        Stmt.Contract contract = (Stmt.Contract) constants[readShort(code, ip)];
+                        if (!Contracts.check(contract)) {
+                            ip += readShort(code, ip + 2);
+                        }
+                        ip += 4;
+                    }
+                    case OpCode.CONTRACT_FAILED -> {
+                        Stmt.Contract contract = (Stmt.Contract) constants[readShort(code, ip)];
+                        ip += 2;
+                        if (contract.type.type == TokenType.ASSERTION) {
+                            throw new RuntimeError(contract.type, contract.type.lexeme + " contract failed (" + contract.msg + ")", new ArrayList<>());
+                        } else if (contract.type.type == TokenType.WARNING) {
+                            System.err.println("Warning (" + contract.msg + ") [" + contract.type.filename + ":" + contract.type.line + "]");
+                        }
+                    }
+                    case OpCode.IMPORT -> {
+                        Stmt.Import stmt = (Stmt.Import) constants[readShort(code, ip)];
+                        ip += 2;
+                        Environment shared = stmt.name != null ? interpreter.sharedModule(stmt) : null;
+                        if (shared != null) {
+                            env.defineNamespace(stmt.name.lexeme, shared);
+                            continue;
+                        }
+                        Chunk chunk = Compiler.compileModule(interpreter.loadModule(stmt), (String) stmt.path.literal);
+                        Environment moduleEnv = env;
+                        if (stmt.name != null) {
+                            moduleEnv = new Environment(StandardLibrary.BUILTINS);
+                        }
+                        frame.ip = ip;
+                        frame.env = env;
+                        long stackBytes = frame.stackBytes;
+                        frame = new Frame(chunk, null, false, stmt, moduleEnv, sp);
+                        frame.stackBytes = stackBytes;
+                        frames.add(frame);
+                        code = frame.chunk.code;
+                        constants = frame.chunk.constants;
+                        ip = 0;
+                        env = moduleEnv;
+                    }
+                    case OpCode.END_MODULE -> {
+                        Stmt.Import stmt = frame.module;
+                        Environment module = env;
+                        frames.remove(frames.size() - 1);
+                        frame = frames.get(frames.size() - 1);
+                        code = frame.chunk.code;
+                        constants = frame.chunk.constants;
+                        ip = frame.ip;
+                        env = frame.env;
+                        interpreter.finishModule(stmt);
+                        if (stmt.name != null) {
+                            interpreter.shareModule(stmt, module);
+                            env.defineNamespace(stmt.name.lexeme, module);
+                        }
+                    }
+                    case OpCode.TEST_BEGIN -> {
+                        Stmt.Test test = (Stmt.Test) constants[readShort(code, ip)];
+                        int target = ip + 4 + readShort(code, ip + 2);
+                        ip += 4;
+                        handlers.add(new Handler(test, frames.size(), env, sp, target, callStack.size()));
+                    }
+                    case OpCode.TEST_END -> {
+                        Stmt.Test test = handlers.remove(handlers.size() - 1).test;
+                        interpreter.testResults.add("PASS " + "(line " + test.name.line + ")" + ": " + test.name.literal);
+                    }
+                    case OpCode.POP_HANDLER ->
+                        handlers.remove(handlers.size() - 1);
+                    case OpCode.END -> {
+                        frames.remove(frames.size() - 1);
+                        return;
+                    }
+                    default ->
+                        throw new RuntimeError(frame.chunk.tokenAt(start), "Unknown opcode " + op + ".", new ArrayList<>());
+                }
+            } catch (RuntimeError error) {
+                frame = recover(error, frame.chunk.tokenAt(start), baseFrames);
+                code = frame.chunk.code;
+                constants = frame.chunk.constants;
+                ip = frame.ip;
+                env = frame.env;
+            }
+        }
+    }
+
+    // Returns the new frame for VM functions, or null once a native call has
+    // left its result on the stack.
+    private Frame call(int argCount, Expr.Call expr) {
+        Token paren = expr.paren;
+        Object callee = stack[sp - argCount - 1];
+        if (!(callee instanceof TahiniCallable)) {
+            throw new RuntimeError(paren,
+                    "Can only call functions and classes.", new ArrayList<>());
+        }
+
+        TahiniCallable function = (TahiniCallable) callee;
+        if (argCount != function.arity()) {
+            throw new RuntimeError(paren, "Expected "
+                    + function.arity() + " arguments but got "
+                    + argCount + ".", new ArrayList<>());
+        }
+
+        if (function instanceof VMFunction vmFunction) {
+            if (vmFunction.compiled.chunk == null) {
+                // before the stack budget is checked, which needs its locals;
+                // a syntax error is traced from inside the function
+                callStack.push(function, paren);
+                Compiler.compileBody(vmFunction.compiled);
+                callStack.pop();
+            }
+            if (frames.get(frames.size() - 1).stackBytes + frameBytes(vmFunction) > stackBudget) {
+                throw new RuntimeError(paren, "Stack overflow: " + frames.size()
+                        + " nested calls exceed the stack budget.", new ArrayList<>());
+            }
+            callStack.push(function, paren);
+            Frame frame = enterFunction(vmFunction, argCount, true);
+            frame.discharged = expr.discharged;
+            return frame;
+        }
+
+        callStack.push(function, paren);
+
+        int args = sp - argCount;
+        Object result;
+        try {
+            result = switch (argCount) {
+                case 0 ->
+                    function.call0(interpreter);
+                case 1 ->
+                    function.call1(interpreter, stack[args]);
+                case 2 ->
+                    function.call2(interpreter, stack[args], stack[args + 1]);
+                case 3 ->
+                    function.call3(interpreter, stack[args], stack[args + 1], stack[args + 2]);
+                default ->
+                    function.call(interpreter, new ArrayList<>(Arrays.asList(stack).subList(args, sp)));
+            };
+        } catch (RuntimeError error) {
+            if (expr.inlined != null) {
+                callStack.restoreInlined(expr.inlined);
+            }
+            if (error.token == null) {
+                throw new RuntimeError(paren, error.getMessage(), null);
+            }
+            throw error;
+        }
+
+        callStack.pop();
+        popN(argCount + 1);
+        push(result);
+        return null;
+    }
+
+    private Frame enterFunction(VMFunction function, int argCount, boolean onCallStack) {
+        if (function.compiled.chunk == null) {
+            Compiler.compileBody(function.compiled);
+        }
+        Stmt.Function declaration = function.compiled.declaration;
+        Environment environment = new Environment(function.closure, declaration.locals);
+        int argStart = sp - argCount;
+        for (int i = 0; i < argCount; i++) {
+            if (declaration.locals != null) {
+                environment.defineAt(i, stack[argStart + i]);
+            } else {
+                environment.define(declaration.params.get(i).lexeme, stack[argStart + i]);
+            }
+        }
+
+        Frame frame = new Frame(function.compiled.chunk, function, onCallStack, null, environment, argStart - 1);
+        frame.stackBytes = frameBytes(function) + (frames.isEmpty() ? 0 : frames.get(frames.size() - 1).stackBytes);
+        frames.add(frame);
+        return frame;
+    }
+
+    private static long frameBytes(VMFunction function) {
+        String[] locals = function.compiled.declaration.locals;
+        return FRAME_BYTES + (locals != null ? (long) locals.length * SLOT_BYTES : 0);
+    }
+
+    // Runs function in place of the returning frame, which is only allowed to
+    // go early because it has no postconditions left to check. The callee and
+    // its arguments move down to where the old frame's callee was.
+    private Frame replaceFrame(Frame frame, VMFunction function, int argCount) {
+        while (!handlers.isEmpty() && handlers.get(handlers.size() - 1).frameCount == frames.size()) {
+            handlers.remove(handlers.size() - 1);
+        }
+        frames.remove(frames.size() - 1);
+        if (frame.onCallStack) {
+            callStack.replaceTop(function);
+        }
+
+        System.arraycopy(stack, sp - argCount - 1, stack, frame.stackBase, argCount + 1);
+        int top = frame.stackBase + argCount + 1;
+        Arrays.fill(stack, top, sp, null);
+        sp = top;
+        return enterFunction(function, argCount, frame.onCallStack);
+    }
+
+    private Frame finish(Frame frame) {
+        frames.remove(frames.size() - 1);
+        if (frame.onCallStack) {
+            callStack.pop();
+        }
+        Arrays.fill(stack, frame.stackBase, sp, null);
+        sp = frame.stackBase;
+        push(frame.returnValue);
+        return frames.isEmpty() ? null : frames.get(frames.size() - 1);
+    }
+
+    private Environment namespaceOf(Environment env, List<Token> nameParts) {
+        for (int i = 0; i < nameParts.size() - 1; i++) {
+            env = env.getNamespace(nameParts.get(i));
+        }
+        return env;
+    }
+
+    // Resumes at the innermost test block started by this run, or rethrows
+    // the error with the current call stack attached.
+    private Frame recover(RuntimeError error, Token fallback, int baseFrames) {
+        Token token = error.token != null ? error.token : fallback;
+        RuntimeError located = new RuntimeError(token, error.getMessage(), callStack.snapshot());
+
+        if (handlers.isEmpty() || handlers.get(handlers.size() - 1).frameCount <= baseFrames) {
+            throw located;
+        }
+
+        Handler handler = handlers.remove(handlers.size() - 1);
+        while (frames.size() > handler.frameCount) {
+            frames.remove(frames.size() - 1);
+        }
+        callStack.truncate(handler.callStackSize);
+        Arrays.fill(stack, handler.sp, sp, null);
+        sp = handler.sp;
+
+        Frame frame = frames.get(frames.size() - 1);
+        frame.env = handler.env;
+        frame.ip = handler.target;
+        interpreter.testResults.add("FAIL " + "(line " + handler.test.name.line + ")" + ": " + handler.test.name.literal + " (" + located.getMessage() + ")");
+        return frame;
+    }
+}
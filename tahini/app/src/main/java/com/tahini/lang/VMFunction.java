@@ -0,0 +1,37 @@
+package com.tahini.lang;
+
+import java.util.List;
+
+class VMFunction implements TahiniCallable {
+
+    final CompiledFunction compiled;
+    // scope the function was declared in, the parent of every call
+    final Environment closure;
+    private final VM vm;
+
+    VMFunction(CompiledFunction compiled, Environment closure, VM vm) {
+        this.compiled = compiled;
+        this.closure = closure;
+        this.vm = vm;
+    }
+
+    @Override
+    public boolean isInternal() {
+        return false;
+    }
+
+    @Override
+    public int arity() {
+        return compiled.declaration.params.size();
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        return vm.invoke(this, arguments);
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + compiled.declaration.name.lexeme + ">";
+    }
+}
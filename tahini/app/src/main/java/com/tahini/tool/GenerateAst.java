@@ -2,6 +2,7 @@ package com.tahini.tool;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -15,16 +16,16 @@ public class GenerateAst {
         String outputDir = args[0];
 
         defineAst(outputDir, "Expr", Arrays.asList(
-                "Assign             : Token name, Expr value",
+                "Assign             : Token name, Expr value | int depth = -1, int slot = -1",
                 "Binary             : Expr left, Token operator, Expr right",
-                "Call               : Expr callee, Token paren, List<Expr> arguments",
+                "Call               : Expr callee, Token paren, List<Expr> arguments | boolean cacheable = false, InlineCache cache = null, CallFrame inlined = null, boolean discharged = false",
                 "ListAccess         : Expr list, Token paren, Expr index",
                 "ListSlice          : Expr list, Token paren, Expr start, Expr end",
                 "Grouping           : Expr expression",
                 "Literal            : Object value",
                 "Unary              : Token operator, Expr right",
                 "Ternary            : Expr condition, Expr left, Expr right",
-                "Variable           : Token name",
+                "Variable           : Token name | int depth = -1, int slot = -1",
                 "NamespacedVariable : List<Token> nameParts",
                 "Logical            : Expr left, Token operator, Expr right",
                 "TahiniList         : List<Expr> elements",
@@ -33,16 +34,16 @@ public class GenerateAst {
 
         defineAst(outputDir, "Stmt", Arrays.asList(
                 "Expression : Expr expression",
-                "Function   : Token name, List<Token> params, List<Stmt> body, List<Expr> preconditions, List<Expr> postconditions, Object premsg, Object postmsg",
+                "Function   : Token name, List<Token> params, List<Stmt> body, List<Expr> preconditions, List<Expr> postconditions, Object premsg, Object postmsg, List<Token> unparsed | int slot = -1, String[] locals = null, int runs = 0, Optimizer pending = null, boolean broken = false",
                 "Test       : Token name, Stmt body",
                 "Print      : Expr expression",
                 "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
-                "Var        : Token name, Expr initializer",
-                "Block      : List<Stmt> statements",
+                "Var        : Token name, Expr initializer | int slot = -1",
+                "Block      : List<Stmt> statements | String[] locals = null",
                 "While      : Expr condition, Stmt body",
                 "Break",
-                "Return     : Token keyword, Expr value",
-                "Contract   : Token type, List<Expr> conditions, Object msg",
+                "Return     : Token keyword, Expr value | boolean tailCall = false",
+                "Contract   : Token type, List<Expr> conditions, Object msg | int runs = 0, boolean discharged = false",
                 "Import     : Token path, Token name"
         ));
     }
@@ -55,12 +56,21 @@ public class GenerateAst {
 
         writer.println("package com.tahini.lang;");
         writer.println();
+        writer.println("import java.io.IOException;");
+        writer.println("import java.util.ArrayList;");
         writer.println("import java.util.List;");
         writer.println();
         writer.println("abstract class " + baseName + " {");
 
+        // Changes whenever a node type does, so saved trees of an older
+        // shape are not read back.
+        writer.println();
+        writer.println("  static final int SCHEMA = " + String.join("\n", types).hashCode() + ";");
+        writer.println();
+
         defineVisitor(writer, baseName, types);
 
+        List<String> readers = new ArrayList<>();
         for (String type : types) {
             String className = type.split(":")[0].trim();
             String fields;
@@ -70,13 +80,50 @@ public class GenerateAst {
                 fields = "";
             }
 
-            defineType(writer, baseName, className, fields);
+            // Fields after '|' are mutable annotations filled in by later passes.
+            String annotations = "";
+            if (fields.contains("|")) {
+                annotations = fields.split("\\|")[1].trim();
+                fields = fields.split("\\|")[0].trim();
+            }
+
+            defineType(writer, baseName, className, fields, annotations, readers.size());
+            readers.add(className + "(" + String.join(", ", fieldCodes(fields, "in.read", "()")) + ")");
         }
 
         // The base accept() method.
         writer.println();
         writer.println("  abstract <R> R accept(Visitor<R> visitor);");
 
+        // Copies share tokens and literals but none of the annotations.
+        writer.println();
+        writer.println("  // A fresh tree without the annotations of later passes.");
+        writer.println("  abstract " + baseName + " copy();");
+        writer.println();
+        writer.println("  static List<" + baseName + "> copyAll(List<" + baseName + "> nodes) {");
+        writer.println("    if (nodes == null) {");
+        writer.println("      return null;");
+        writer.println("    }");
+        writer.println("    List<" + baseName + "> copies = new ArrayList<>(nodes.size());");
+        writer.println("    for (" + baseName + " node : nodes) {");
+        writer.println("      copies.add(node.copy());");
+        writer.println("    }");
+        writer.println("    return copies;");
+        writer.println("  }");
+
+        // Reading back what write() saved.
+        writer.println();
+        writer.println("  abstract void write(AstWriter out) throws IOException;");
+        writer.println();
+        writer.println("  static " + baseName + " read(AstReader in, int tag) throws IOException {");
+        writer.println("    return switch (tag) {");
+        for (int i = 0; i < readers.size(); i++) {
+            writer.println("      case " + i + " -> new " + readers.get(i) + ";");
+        }
+        writer.println("      default -> throw new IOException(\"Unknown " + baseName + " node \" + tag + \".\");");
+        writer.println("    };");
+        writer.println("  }");
+
         writer.println("}");
         writer.close();
     }
@@ -94,9 +141,30 @@ public class GenerateAst {
         writer.println("  }");
     }
 
+    // The AstWriter or AstReader method for each field, e.g. writeExprs(args).
+    private static List<String> fieldCodes(String fieldList, String prefix, String suffix) {
+        List<String> codes = new ArrayList<>();
+        if (fieldList.isEmpty()) {
+            return codes;
+        }
+        for (String field : fieldList.split(", ")) {
+            String type = field.split(" ")[0];
+            String name = field.split(" ")[1];
+            String kind = switch (type) {
+                case "List<Expr>" -> "Exprs";
+                case "List<Stmt>" -> "Stmts";
+                case "List<Token>" -> "Tokens";
+                case "Expr", "Stmt", "Token", "Object" -> type;
+                default -> throw new IllegalArgumentException("No AstWriter method for " + type + ".");
+            };
+            codes.add(prefix + kind + suffix.replace("%", name));
+        }
+        return codes;
+    }
+
     private static void defineType(
             PrintWriter writer, String baseName,
-            String className, String fieldList) {
+            String className, String fieldList, String annotationList, int tag) {
         writer.println("  static class " + className + " extends "
                 + baseName + " {");
 
@@ -125,12 +193,51 @@ public class GenerateAst {
                 + className + baseName + "(this);");
         writer.println("    }");
 
+        // Copy.
+        List<String> copies = new ArrayList<>();
+        for (String field : fields) {
+            String type = field.split(" ")[0];
+            String name = field.split(" ")[1];
+            copies.add(switch (type) {
+                case "Expr", "Stmt" ->
+                    name + " == null ? null : " + name + ".copy()";
+                case "List<Expr>" ->
+                    "Expr.copyAll(" + name + ")";
+                case "List<Stmt>" ->
+                    "Stmt.copyAll(" + name + ")";
+                default ->
+                    name;
+            });
+        }
+        writer.println();
+        writer.println("    @Override");
+        writer.println("    " + className + " copy() {");
+        writer.println("      return new " + className + "(" + String.join(", ", copies) + ");");
+        writer.println("    }");
+
+        // Write.
+        writer.println();
+        writer.println("    @Override");
+        writer.println("    void write(AstWriter out) throws IOException {");
+        writer.println("      out.writeTag(" + tag + ");");
+        for (String code : fieldCodes(fieldList, "out.write", "(%)")) {
+            writer.println("      " + code + ";");
+        }
+        writer.println("    }");
+
         // Fields.
         writer.println();
         for (String field : fields) {
             writer.println("    final " + field + ";");
         }
 
+        // Annotations.
+        if (annotationList.length() > 0) {
+            for (String annotation : annotationList.split(", ")) {
+                writer.println("    " + annotation + ";");
+            }
+        }
+
         writer.println("  }");
     }
 }
@@ -0,0 +1,26 @@
+#!/bin/bash
+
+# Directory containing benchmark scripts
+BENCH_DIR="benchmarks"
+
+# Path to your built JAR file
+JAR_PATH="app/build/libs/app.jar"
+
+# Build the project
+echo "Building the project..."
+gradle build
+
+# Check if the build was successful
+if [ $? -ne 0 ]; then
+  echo "Build failed. Exiting."
+  exit 1
+fi
+
+# Benchmarks run one at a time so they do not compete for the CPU.
+# Extra arguments are passed through, e.g. ./run_benchmarks.sh --engine=vm
+for bench_file in $BENCH_DIR/*.tah; do
+  echo "Running $bench_file..."
+  java -jar "$JAR_PATH" "$bench_file" "$@"
+done
+
+echo "Benchmarks completed."
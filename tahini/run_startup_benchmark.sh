@@ -0,0 +1,65 @@
+#!/bin/bash
+
+# Compares startup with and without the .tahc cache of parsed scripts:
+# every program in ../examples and tests runs once with --no-cache, which
+# scans and parses it from source, and once more with a cache that a first
+# run has filled. Then benchmarks/startup/main.tah, which calls a few of the
+# 400 functions of a module, compares parsing their bodies on first call,
+# the default, with parsing them all up front as --test does. Extra
+# arguments are passed through to every run.
+
+JAR_PATH="app/build/libs/app.jar"
+ROUNDS=3
+
+echo "Building the project..."
+gradle build
+
+if [ $? -ne 0 ]; then
+  echo "Build failed. Exiting."
+  exit 1
+fi
+
+export TAHINI_CACHE=$(mktemp -d)
+trap 'rm -rf "$TAHINI_CACHE"' EXIT
+
+programs=(../examples/*/main.tah tests/*.tah)
+
+# Runs every program once and prints the total wall clock time in ms.
+run_all() {
+  local start=$(date +%s%N)
+  for program in "${programs[@]}"; do
+    local args=()
+    if [ -f "${program%.tah}.args" ]; then
+      read -r -a args < "${program%.tah}.args"
+    fi
+    local input="${program%.tah}.txt"
+    [ -f "$input" ] || input=/dev/null
+    java -jar "$JAR_PATH" "$program" "${args[@]}" "$@" < "$input" > /dev/null 2>&1
+  done
+  echo $(( ($(date +%s%N) - start) / 1000000 ))
+}
+
+# fill the cache
+run_all "$@" > /dev/null
+
+for round in $(seq $ROUNDS); do
+  echo "Round $round: ${#programs[@]} programs, parsed from source $(run_all --no-cache "$@") ms, loaded from cache $(run_all "$@") ms"
+done
+
+startup="benchmarks/startup/main.tah"
+STARTUP_RUNS=10
+
+# Runs the start-up script STARTUP_RUNS times, after a run that fills the
+# cache for its mode, and prints the total wall clock time in ms.
+run_startup() {
+  java -jar "$JAR_PATH" "$startup" "$@" > /dev/null 2>&1
+  local start=$(date +%s%N)
+  for run in $(seq $STARTUP_RUNS); do
+    java -jar "$JAR_PATH" "$startup" "$@" > /dev/null 2>&1
+  done
+  echo $(( ($(date +%s%N) - start) / 1000000 ))
+}
+
+for round in $(seq $ROUNDS); do
+  echo "Round $round: $startup x$STARTUP_RUNS, parsed from source lazily $(run_startup --no-cache "$@") ms, in full $(run_startup --no-cache --test "$@") ms; loaded from cache lazily $(run_startup "$@") ms, in full $(run_startup --test "$@") ms"
+done
@@ -21,13 +21,20 @@ fi
 run_test() {
   local test_file=$1
   local input_file="${test_file%.tah}.txt"
+  local args_file="${test_file%.tah}.args"
   local expected_output=$(grep -E '^// ' "$test_file" | sed 's/^\/\/ //')
-  
+
+  # Extra command line arguments for the test, if any
+  local args=()
+  if [ -f "$args_file" ]; then
+    read -r -a args < "$args_file"
+  fi
+
   # Run the JAR file with input redirection and capture both stdout and stderr
   if [ -f "$input_file" ]; then
-    local actual_output=$(java -jar "$JAR_PATH" "$test_file" < "$input_file" 2>&1)
+    local actual_output=$(java -jar "$JAR_PATH" "$test_file" "${args[@]}" < "$input_file" 2>&1)
   else
-    local actual_output=$(java -jar "$JAR_PATH" "$test_file" 2>&1)
+    local actual_output=$(java -jar "$JAR_PATH" "$test_file" "${args[@]}" 2>&1)
   fi
 
   # Remove absolute paths from the actual output, keeping only filenames